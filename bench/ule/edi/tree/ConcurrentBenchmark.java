@@ -0,0 +1,147 @@
+package ule.edi.tree;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lectores de {@link ConcurrentBinarySearchTree} a la vez que un escritor:
+ * cada grupo (readers1, readers2, readers4 y readers8) ejecuta ese número de
+ * hilos lectores, que hacen contains y getPath de claves del arbol, y un
+ * escritor que inserta y elimina claves que no estan.
+ *
+ * JMH da el rendimiento de cada método del grupo por separado: el de read
+ * es el total de lecturas de todos los lectores, y comparándolo entre
+ * grupos se ve cómo escalan las lecturas optimistas con los hilos.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+	/**
+	 * Arbol compartido por los hilos de un grupo.
+	 */
+	@State(Scope.Group)
+	public static class Shared {
+
+		@Param({ "10000", "100000" })
+		public int size;
+
+		@Param({ "false", "true" })
+		public boolean balanced;
+
+		TreeData data;
+
+		ConcurrentBinarySearchTree<Integer> tree;
+
+		@Setup(Level.Trial)
+		public void build() {
+			//	RANDOM, para que el arbol sin equilibrar no degenere
+			data = new TreeData(Distribution.RANDOM, size, balanced);
+			tree = new ConcurrentBinarySearchTree<Integer>(balanced);
+			for (Integer k : data.keys) {
+				tree.insert(k);
+			}
+		}
+	}
+
+	/**
+	 * Posición de cada hilo en las claves de TreeData.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next;
+
+		int next() {
+			int rx = next;
+			next = (rx + 1) & (TreeData.PROBES - 1);
+			return rx;
+		}
+	}
+
+	private static void read(Shared s, Cursor c, Blackhole bh) {
+		Integer k = s.data.present[c.next()];
+		bh.consume(s.tree.contains(k));
+		bh.consume(s.tree.getPath(k));
+	}
+
+	private static void write(Shared s, Cursor c) {
+		Integer k = s.data.absent[c.next()];
+		s.tree.insert(k);
+		s.tree.remove(k);
+	}
+
+	@Benchmark
+	@Group("readers1")
+	@GroupThreads(1)
+	public void read1(Shared s, Cursor c, Blackhole bh) {
+		read(s, c, bh);
+	}
+
+	@Benchmark
+	@Group("readers1")
+	@GroupThreads(1)
+	public void write1(Shared s, Cursor c) {
+		write(s, c);
+	}
+
+	@Benchmark
+	@Group("readers2")
+	@GroupThreads(2)
+	public void read2(Shared s, Cursor c, Blackhole bh) {
+		read(s, c, bh);
+	}
+
+	@Benchmark
+	@Group("readers2")
+	@GroupThreads(1)
+	public void write2(Shared s, Cursor c) {
+		write(s, c);
+	}
+
+	@Benchmark
+	@Group("readers4")
+	@GroupThreads(4)
+	public void read4(Shared s, Cursor c, Blackhole bh) {
+		read(s, c, bh);
+	}
+
+	@Benchmark
+	@Group("readers4")
+	@GroupThreads(1)
+	public void write4(Shared s, Cursor c) {
+		write(s, c);
+	}
+
+	@Benchmark
+	@Group("readers8")
+	@GroupThreads(8)
+	public void read8(Shared s, Cursor c, Blackhole bh) {
+		read(s, c, bh);
+	}
+
+	@Benchmark
+	@Group("readers8")
+	@GroupThreads(1)
+	public void write8(Shared s, Cursor c) {
+		write(s, c);
+	}
+}
@@ -0,0 +1,79 @@
+package ule.edi.tree;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * copy y filterTags en arboles grandes, por el camino paralelo (el de por
+ * defecto, con fork/join por encima de
+ * {@link BinarySearchTreeImpl#PARALLEL_CUTOFF} nodos) y por el secuencial,
+ * para ver a partir de qué tamaño y con cuántos núcleos compensa.
+ *
+ * filterTags solo quita etiquetas la primera vez; después cada llamada
+ * sigue recorriendo el arbol y rehaciendo el mapa de etiquetas de cada nodo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+	@State(Scope.Thread)
+	public static class Data {
+
+		@Param({ "100000", "1000000" })
+		public int size;
+
+		@Param({ "RANDOM", "SORTED" })
+		public Distribution distribution;
+
+		BinarySearchTreeImpl<Integer> tree;
+
+		@Setup(Level.Trial)
+		public void build() {
+			//	Equilibrado, para que SORTED no tarde horas en construirse
+			tree = new TreeData(distribution, size, true).tree;
+			int i = 0;
+			for (Integer k : tree.asNavigableSet()) {
+				BinarySearchTreeImpl<Integer> node = tree.findNode(k);
+				node.setTag("pos", i++);
+				node.setTag("par", k % 4 == 0);
+			}
+		}
+	}
+
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> copyParallel(Data s) {
+		return s.tree.copy();
+	}
+
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> copySequential(Data s) {
+		return s.tree.copy(Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> filterTagsParallel(Data s) {
+		s.tree.filterTags(BinarySearchTreeImpl.PARALLEL_CUTOFF, "pos");
+		return s.tree;
+	}
+
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> filterTagsSequential(Data s) {
+		s.tree.filterTags(Integer.MAX_VALUE, "pos");
+		return s.tree;
+	}
+}
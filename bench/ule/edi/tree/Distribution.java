@@ -0,0 +1,103 @@
+package ule.edi.tree;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Distribuciones de las claves con las que se construyen los arboles de las
+ * pruebas de rendimiento, en el orden en que se insertan.
+ *
+ * Todas las claves son pares, así que sumando 1 a cualquiera se obtiene un
+ * elemento que no está en el arbol.
+ */
+public enum Distribution {
+
+	/**
+	 * Uniformes, casi todas diferentes.
+	 */
+	RANDOM {
+		@Override
+		int[] keys(int n, Random r) {
+			int[] rx = new int[n];
+			for (int i = 0; i < n; i++) {
+				rx[i] = 2 * r.nextInt(1 << 29);
+			}
+			return rx;
+		}
+	},
+
+	/**
+	 * Crecientes: sin equilibrar, el arbol degenera en una lista.
+	 */
+	SORTED {
+		@Override
+		int[] keys(int n, Random r) {
+			int[] rx = new int[n];
+			for (int i = 0; i < n; i++) {
+				rx[i] = 2 * i;
+			}
+			return rx;
+		}
+	},
+
+	/**
+	 * Decrecientes: como SORTED, pero degenera hacia la izquierda.
+	 */
+	REVERSE {
+		@Override
+		int[] keys(int n, Random r) {
+			int[] rx = new int[n];
+			for (int i = 0; i < n; i++) {
+				rx[i] = 2 * (n - i);
+			}
+			return rx;
+		}
+	},
+
+	/**
+	 * Zipf (s = 1) sobre n claves: las más frecuentes se repiten muchísimo y
+	 * la mayoría aparecen una vez o ninguna. Cada rango se convierte en una
+	 * clave dispersa, para que las frecuentes no queden juntas.
+	 */
+	ZIPF {
+		@Override
+		int[] keys(int n, Random r) {
+			double[] cdf = new double[n];
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += 1.0 / (i + 1);
+				cdf[i] = sum;
+			}
+			int[] rx = new int[n];
+			for (int i = 0; i < n; i++) {
+				int rank = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+				if (rank < 0) {
+					rank = -rank - 1;
+				}
+				//	Multiplicar por un impar es biyectivo módulo 2^30
+				rx[i] = 2 * (int) ((rank * 0x9E3779B1L) & 0x3FFFFFFF);
+			}
+			return rx;
+		}
+	},
+
+	/**
+	 * n / 16 claves diferentes, con unas 16 instancias cada una.
+	 */
+	DUPLICATES {
+		@Override
+		int[] keys(int n, Random r) {
+			int distinct = Math.max(1, n / 16);
+			int[] rx = new int[n];
+			for (int i = 0; i < n; i++) {
+				rx[i] = 2 * r.nextInt(distinct);
+			}
+			return rx;
+		}
+	};
+
+	/**
+	 * Devuelve n claves (con repeticiones, según la distribución).
+	 */
+	abstract int[] keys(int n, Random r);
+}
@@ -0,0 +1,101 @@
+package ule.edi.tree;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Operaciones de consulta de {@link BinarySearchTreeImpl}: búsquedas,
+ * caminos, recorridos en anchura, copia y toString, con cada distribución
+ * y tamaño, equilibrado o no. Ninguna modifica el arbol.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+	@State(Scope.Thread)
+	public static class Data {
+
+		@Param({ "1000", "10000", "100000" })
+		public int size;
+
+		@Param({ "RANDOM", "SORTED", "REVERSE", "ZIPF", "DUPLICATES" })
+		public Distribution distribution;
+
+		@Param({ "false", "true" })
+		public boolean balanced;
+
+		TreeData data;
+
+		@Setup(Level.Trial)
+		public void build() {
+			data = new TreeData(distribution, size, balanced);
+		}
+	}
+
+	@Benchmark
+	public boolean containsPresent(Data s) {
+		return s.data.tree.contains(s.data.present[s.data.next()]);
+	}
+
+	@Benchmark
+	public boolean containsAbsent(Data s) {
+		return s.data.tree.contains(s.data.absent[s.data.next()]);
+	}
+
+	@Benchmark
+	public String getPath(Data s) {
+		return s.data.tree.getPath(s.data.present[s.data.next()]);
+	}
+
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> getSubtreeWithPath(Data s) {
+		return s.data.tree.getSubtreeWithPath(s.data.paths[s.data.nextPath()]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void iteratorWidth(Data s, Blackhole bh) {
+		Iterator<Integer> it = s.data.tree.iteratorWidth();
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void iteratorWidthInstances(Data s, Blackhole bh) {
+		Iterator<Integer> it = s.data.tree.iteratorWidthInstances();
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public BinarySearchTreeImpl<Integer> copy(Data s) {
+		return s.data.tree.copy();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String treeToString(Data s) {
+		return s.data.tree.toString();
+	}
+}
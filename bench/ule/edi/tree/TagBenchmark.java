@@ -0,0 +1,96 @@
+package ule.edi.tree;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operaciones tag* de {@link BinarySearchTreeImpl}, que recorren el arbol
+ * entero etiquetando nodos, y filterTags.
+ *
+ * Los tag* son recursivos: con SORTED o REVERSE sin equilibrar la recursión
+ * es tan profunda como el arbol, y con unos miles de nodos desborda la pila.
+ * Por eso aquí los tamaños son menores que en las demás pruebas.
+ *
+ * Etiquetar otra vez un nodo solo cambia el valor de la etiqueta, así que
+ * repetir la operación sobre el mismo arbol mide siempre lo mismo; aun así
+ * se parte de una copia sin etiquetas en cada iteración.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagBenchmark {
+
+	@State(Scope.Thread)
+	public static class Data {
+
+		@Param({ "100", "1000" })
+		public int size;
+
+		@Param({ "RANDOM", "SORTED", "REVERSE", "ZIPF", "DUPLICATES" })
+		public Distribution distribution;
+
+		@Param({ "false", "true" })
+		public boolean balanced;
+
+		TreeData data;
+
+		BinarySearchTreeImpl<Integer> tree;
+
+		@Setup(Level.Trial)
+		public void build() {
+			data = new TreeData(distribution, size, balanced);
+		}
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tree = data.tree.copy();
+		}
+	}
+
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> tagPosDescend(Data s) {
+		s.tree.tagPosDescend();
+		return s.tree;
+	}
+
+	@Benchmark
+	public int tagInternalInorder(Data s) {
+		return s.tree.tagInternalInorder();
+	}
+
+	@Benchmark
+	public int tagOnlySonPreorder(Data s) {
+		return s.tree.tagOnlySonPreorder();
+	}
+
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> tagHeightLeaf(Data s) {
+		s.tree.tagHeightLeaf();
+		return s.tree;
+	}
+
+	/**
+	 * Etiqueta el arbol con dos etiquetas y se queda con una.
+	 */
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> tagAndFilter(Data s) {
+		s.tree.tagPosDescend();
+		s.tree.tagInternalInorder();
+		s.tree.filterTags("descend");
+		return s.tree;
+	}
+}
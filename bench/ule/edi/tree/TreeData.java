@@ -0,0 +1,92 @@
+package ule.edi.tree;
+
+import java.util.Random;
+
+/**
+ * Datos de una prueba de rendimiento: las claves de una distribución, el
+ * arbol construido insertándolas en orden y las claves que se buscan.
+ *
+ * Las claves se guardan ya como Integer para que la conversión no cuente en
+ * los tiempos ni en las asignaciones que mide el perfilador de GC.
+ */
+final class TreeData {
+
+	/**
+	 * Claves presentes y ausentes que se buscan (potencia de 2).
+	 */
+	static final int PROBES = 1 << 12;
+
+	/**
+	 * Caminos que se precalculan; en un arbol degenerado cada uno puede medir
+	 * tanto como el arbol, así que son menos que las claves.
+	 */
+	static final int PATHS = 1 << 8;
+
+	private static final long SEED = 20220517L;
+
+	/**
+	 * Claves en el orden en que se insertan.
+	 */
+	final Integer[] keys;
+
+	/**
+	 * Claves del arbol, elegidas con la frecuencia de la distribución.
+	 */
+	final Integer[] present;
+
+	/**
+	 * Claves que no están en el arbol.
+	 */
+	final Integer[] absent;
+
+	/**
+	 * getPath de las primeras PATHS claves de present.
+	 */
+	final String[] paths;
+
+	/**
+	 * Arbol con todas las claves; las pruebas que lo modifican trabajan
+	 * sobre copias.
+	 */
+	final BinarySearchTreeImpl<Integer> tree;
+
+	private int next;
+
+	TreeData(Distribution distribution, int size, boolean balanced) {
+		Random r = new Random(SEED);
+		int[] k = distribution.keys(size, r);
+		keys = new Integer[size];
+		tree = new BinarySearchTreeImpl<Integer>(balanced);
+		for (int i = 0; i < size; i++) {
+			keys[i] = k[i];
+			tree.insert(keys[i]);
+		}
+		present = new Integer[PROBES];
+		absent = new Integer[PROBES];
+		for (int i = 0; i < PROBES; i++) {
+			present[i] = keys[r.nextInt(size)];
+			absent[i] = present[i] + 1;
+		}
+		paths = new String[PATHS];
+		for (int i = 0; i < PATHS; i++) {
+			paths[i] = tree.getPath(present[i]);
+		}
+	}
+
+	/**
+	 * Índice de la siguiente clave a buscar, recorriendo present y absent
+	 * circularmente.
+	 */
+	int next() {
+		int rx = next;
+		next = (rx + 1) & (PROBES - 1);
+		return rx;
+	}
+
+	/**
+	 * Índice del siguiente camino de paths.
+	 */
+	int nextPath() {
+		return next() & (PATHS - 1);
+	}
+}
@@ -0,0 +1,107 @@
+package ule.edi.tree;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operaciones que modifican un {@link BinarySearchTreeImpl}: insert, remove
+ * y removeAll, con cada distribución y tamaño, equilibrado o no.
+ *
+ * Cada prueba deja el arbol con los mismos elementos que tenía, pero sin
+ * equilibrar remove e insert pueden ir cambiando su forma, así que en cada
+ * iteración se empieza con una copia nueva del arbol original.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBenchmark {
+
+	@State(Scope.Thread)
+	public static class Data {
+
+		@Param({ "1000", "10000", "100000" })
+		public int size;
+
+		@Param({ "RANDOM", "SORTED", "REVERSE", "ZIPF", "DUPLICATES" })
+		public Distribution distribution;
+
+		@Param({ "false", "true" })
+		public boolean balanced;
+
+		TreeData data;
+
+		BinarySearchTreeImpl<Integer> tree;
+
+		@Setup(Level.Trial)
+		public void build() {
+			data = new TreeData(distribution, size, balanced);
+		}
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tree = data.tree.copy();
+		}
+	}
+
+	/**
+	 * Construye el arbol completo insertando las claves una a una.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public BinarySearchTreeImpl<Integer> insertAll(Data s) {
+		BinarySearchTreeImpl<Integer> t = new BinarySearchTreeImpl<Integer>(s.balanced);
+		for (Integer k : s.data.keys) {
+			t.insert(k);
+		}
+		return t;
+	}
+
+	/**
+	 * Inserta un elemento que no estaba (una hoja nueva) y lo elimina.
+	 */
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> insertRemove(Data s) {
+		Integer k = s.data.absent[s.data.next()];
+		s.tree.insert(k);
+		s.tree.remove(k);
+		return s.tree;
+	}
+
+	/**
+	 * Inserta dos instancias de un elemento que no estaba y las elimina
+	 * con removeAll.
+	 */
+	@Benchmark
+	public int insertRemoveAll(Data s) {
+		Integer k = s.data.absent[s.data.next()];
+		s.tree.insert(k);
+		s.tree.insert(k);
+		return s.tree.removeAll(k);
+	}
+
+	/**
+	 * Elimina una instancia de un elemento que ya estaba (un nodo interno
+	 * con frecuencia) y la vuelve a insertar.
+	 */
+	@Benchmark
+	public BinarySearchTreeImpl<Integer> removeInsert(Data s) {
+		Integer k = s.data.present[s.data.next()];
+		s.tree.remove(k);
+		s.tree.insert(k);
+		return s.tree;
+	}
+}
@@ -1,9 +1,11 @@
 package ule.edi.tree;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 
@@ -33,35 +35,50 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 
 	protected T content;//	Información en el nodo raíz
 	
-	protected Map<String, Object> tags = new HashMap<>();
+	//	Etiquetas del nodo. Es null hasta que se asigna la primera, ya que
+	//	la mayoria de los nodos no llevan ninguna; con pocas etiquetas se
+	//	usa un SmallTagMap y con mas de SmallTagMap.CAPACITY un HashMap.
+	protected Map<String, Object> tags;
 	
+	/**
+	 * Cierto si el nodo tiene al menos una etiqueta.
+	 */
+	protected boolean hasTags() {
+		return tags != null && ! tags.isEmpty();
+	}
+	
+	/**
+	 * Devuelve el mapa (modificable) de etiquetas; si el nodo aun no
+	 * tenia, lo crea vacio.
+	 */
 	@Override
 	public Map<String, Object> getTags() {
+		if (tags == null) {
+			tags = new SmallTagMap();
+		}
 		return tags;
 	}
 	
 	@Override
 	public void setTag(String k, Object v) {
+		if (tags == null) {
+			tags = new SmallTagMap();
+		} else if (tags instanceof SmallTagMap && tags.size() >= SmallTagMap.CAPACITY
+				&& ! tags.containsKey(k)) {
+			tags = new HashMap<>(tags);
+		}
 		tags.put(k, v);
 	}
 	
 	@Override
 	public Object getTag(String k) {
-		return tags.get(k);
+		return (tags == null) ? null : tags.get(k);
 	}
 	
 	@Override
 	public void filterTags(String ... keep) {
 		
-		if (! tags.isEmpty()) {
-			HashMap<String, Object> rx = new HashMap<>();
-			for (int i = 0; i < keep.length; i++) {
-				if (tags.containsKey(keep[i])) {
-					rx.put(keep[i], tags.get(keep[i]));
-				}
-			}
-			this.tags = rx;
-		}
+		filterOwnTags(keep);
 		
 		if (! isEmpty()) {
 			for (int i = 0; i < getMaxDegree(); i++) {
@@ -70,6 +87,20 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 		}
 	}
 
+	/**
+	 * Deja en este nodo (sin tocar sus sub-árboles) solo las etiquetas de keep.
+	 */
+	protected void filterOwnTags(String ... keep) {
+		if (hasTags()) {
+			SmallTagMap rx = new SmallTagMap();
+			for (int i = 0; i < keep.length; i++) {
+				if (tags.containsKey(keep[i])) {
+					rx.put(keep[i], tags.get(keep[i]));
+				}
+			}
+			this.tags = rx.isEmpty() ? null : rx;
+		}
+	}
 	
 	@Override
 	public void setContent(T content) {
@@ -146,80 +177,140 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 	 */
 	@Override
 	public String toString() {
-		if (! isEmpty()) {
-			//	Construye el resultado de forma eficiente
-			StringBuffer result = new StringBuffer();
-				
-			//	Raíz
-			result.append("{" + content.toString());
-			
-			if (! tags.isEmpty()) {
-				result.append(" [");
-				
-				List<String> sk = new LinkedList<String>(tags.keySet());
-				
-				Collections.sort(sk);
-				for (String k : sk) {
-					result.append("(" + k + ", " + tags.get(k) + "), ");
-				}
-				result.delete(result.length() - 2, result.length());
-				result.append("]");
+		//	Construye el resultado de forma eficiente
+		StringBuilder result = new StringBuilder();
+		try {
+			writeTo(result);
+		} catch (IOException e) {
+			//	StringBuilder no lanza IOException
+			throw new UncheckedIOException(e);
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Escribe el árbol en out con el mismo formato que {@link #toString()}.
+	 * 
+	 * Se recorre el árbol de forma iterativa y se escribe directamente en
+	 * out, sin construir un String por cada sub-árbol, así que sirve para
+	 * volcar árboles grandes (y profundos) en un Writer.
+	 * 
+	 * @param out destino, por ejemplo un Writer o un StringBuilder.
+	 * @throws IOException si falla la escritura en out.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		//	Pila de sub-árboles pendientes y de separadores entre ellos
+		Deque<Object> pending = new ArrayDeque<Object>();
+		pending.push(this);
+		
+		while (! pending.isEmpty()) {
+			Object item = pending.pop();
+			if (item instanceof String) {
+				out.append((String) item);
+				continue;
+			}
+			TreeADT<?> t = (TreeADT<?>) item;
+			if (t.isEmpty()) {
+				out.append(AbstractTreeADT.EMPTY_TREE_MARK);
+				continue;
 			}
 			
-			//	Y cada sub-árbol
-			for (int i = 0; i < getMaxDegree(); i++) {
-				result.append(", " + getSubtree(i).toString());
+			//	Raíz
+			out.append('{');
+			if (t instanceof AbstractTreeADT) {
+				((AbstractTreeADT<?>) t).writeRoot(out);
+			} else {
+				out.append(String.valueOf(t.getContent()));
+				writeTags(out, t.getTags());
 			}
-			//	Cierra la "}" de este árbol
-			result.append("}");
 			
-			return result.toString();
-		} else {
-			return AbstractTreeADT.EMPTY_TREE_MARK;
+			//	Y cada sub-árbol, apilados en orden inverso; después
+			//	se cierra la "}" de este árbol
+			pending.push("}");
+			for (int i = t.getMaxDegree() - 1; i >= 0; i--) {
+				TreeADT<?> sub = t.getSubtree(i);
+				pending.push((sub == null) ? EMPTY_TREE_MARK : sub);
+				pending.push(", ");
+			}
 		}
 	}
 	
 	/**
-	 * Implementación para mostrar un árbol con niveles.
+	 * Escribe la información del nodo raíz y sus etiquetas, tal como
+	 * aparecen en {@link #toString()}.
 	 * 
-	 * @param t (sub-)árbol a mostrar.
-	 * @param bx buffer donde acumular el resultado.
-	 * @param depth profundidad de t en el árbol total.
+	 * @param out destino.
+	 * @throws IOException si falla la escritura en out.
 	 */
-	private void render(TreeADT<T> t, StringBuffer bx, int depth) {
-		
-		//	Muestra el nodo raíz; tantos espacios como profundo sea
-		for (int i = 0; i < depth; i++) { bx.append("|  "); }
+	protected void writeRoot(Appendable out) throws IOException {
+		out.append(String.valueOf(content));
+		writeTags(out, tags);
+	}
+	
+	/**
+	 * Escribe las etiquetas como " [(clave, valor), ...]", ordenadas por
+	 * clave; no escribe nada si no hay etiquetas.
+	 * 
+	 * @param out destino.
+	 * @param tags etiquetas, puede ser null.
+	 * @throws IOException si falla la escritura en out.
+	 */
+	protected static void writeTags(Appendable out, Map<String, Object> tags) throws IOException {
+		if (tags == null || tags.isEmpty()) {
+			return;
+		}
+		String[] sk = tags.keySet().toArray(new String[tags.size()]);
+		Arrays.sort(sk);
+		out.append(" [");
+		for (int i = 0; i < sk.length; i++) {
+			if (i > 0) {
+				out.append(", ");
+			}
+			out.append('(').append(sk[i]).append(", ").append(String.valueOf(tags.get(sk[i]))).append(')');
+		}
+		out.append(']');
+	}
+	
+	/**
+	 * Escribe en out la representación en niveles de {@link #render()}.
+	 * 
+	 * Como {@link #writeTo(Appendable)}, es iterativo y no construye
+	 * cadenas intermedias.
+	 * 
+	 * @param out destino, por ejemplo un Writer o un StringBuilder.
+	 * @throws IOException si falla la escritura en out.
+	 */
+	public void renderTo(Appendable out) throws IOException {
+		//	Sub-árboles pendientes, con la profundidad de cada uno
+		Deque<TreeADT<?>> pending = new ArrayDeque<TreeADT<?>>();
+		Deque<Integer> depths = new ArrayDeque<Integer>();
+		pending.push(this);
+		depths.push(0);
 		
-		//	Y después de los espacios, la información
-		if (! t.isEmpty()) {
-			bx.append(t.getContent());
+		while (! pending.isEmpty()) {
+			TreeADT<?> t = pending.pop();
+			int depth = depths.pop();
 			
-			Map<String, Object> tags = t.getTags();
+			//	Muestra el nodo raíz; tantos espacios como profundo sea
+			for (int i = 0; i < depth; i++) { out.append("|  "); }
 			
-			if (! tags.isEmpty()) {
-				bx.append(" [");
+			//	Y después de los espacios, la información
+			if (! t.isEmpty()) {
+				out.append(String.valueOf(t.getContent()));
+				//	Sin crear mapas de etiquetas en los nodos que no tienen
+				writeTags(out, (t instanceof AbstractTreeADT)
+						? ((AbstractTreeADT<?>) t).tags : t.getTags());
+				out.append('\n');
 				
-				List<String> sk = new LinkedList<String>(tags.keySet());
-				
-				Collections.sort(sk);
-				for (String k : sk) {
-					bx.append("(" + k + ", " + tags.get(k) + "), ");
+				//	Y sus sub-árboles, que están a mayor profundidad que éste
+				for (int i = t.getMaxDegree() - 1; i >= 0; i--) {
+					pending.push(t.getSubtree(i));
+					depths.push(depth + 1);
 				}
-				bx.delete(bx.length() - 2, bx.length());
-				bx.append("]");
+			} else {
+				out.append(AbstractTreeADT.EMPTY_TREE_MARK);
+				out.append('\n');
 			}
-			
-			bx.append("\n");
-			
-			//	Muestra sus sub-árboles (recursividad)
-			for (int i = 0; i < t.getMaxDegree(); i++) {
-				//	Que están a mayor profundidad que éste
-				render(t.getSubtree(i), bx, depth + 1);
-			}			
-		} else {
-			bx.append(AbstractTreeADT.EMPTY_TREE_MARK);
-			bx.append("\n");
 		}
 	}
 	
@@ -230,10 +321,12 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 	 */
 	public String render() {
 		//	Acumula el resultado
-		StringBuffer rx = new StringBuffer();
-		//	Genera usando recursividad
-		render(this, rx, 0);
-		//	
+		StringBuilder rx = new StringBuilder();
+		try {
+			renderTo(rx);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 		return rx.toString();
 	}
 	
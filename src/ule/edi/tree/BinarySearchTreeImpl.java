@@ -1,13 +1,27 @@
 package ule.edi.tree;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.Spliterator;
 import java.util.Stack;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * arbol binario de busqueda (binary search tree, BST).
@@ -59,7 +73,12 @@ import java.util.Stack;
 public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends AbstractBinaryTreeADT<T> {
 
 	BinarySearchTreeImpl<T> father; // referencia a su nodo padre)
-	int count;  // contador de instancias 
+	int count;  // contador de instancias
+	int height; // altura del sub-arbol (0 si es vacio)
+	boolean balanced; // si es cierto, se reequilibra (AVL) al insertar y eliminar
+	int modCount; // numero de modificaciones (solo se usa en la raiz), para los iteradores
+	int subtreeSize; // numero de elementos distintos en este sub-arbol
+	long subtreeInstances; // numero de instancias (suma de count) en este sub-arbol
 
 	/**
 	 * Devuelve el arbol binario de busqueda izquierdo.
@@ -96,19 +115,206 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		this.count = 0;
 	}
 
+	/**
+	 * arbol BST vacio que, si balanced es cierto, se mantiene equilibrado
+	 * (AVL) tras cada insercion y eliminacion, con altura O(log n).
+	 *
+	 * Se conservan las instancias (count), las referencias father y las
+	 * etiquetas de cada elemento: al rotar, el elemento se mueve junto
+	 * con su count y sus etiquetas.
+	 *
+	 * @param balanced cierto para un arbol autoequilibrado
+	 */
+	public BinarySearchTreeImpl(boolean balanced) {
+		this();
+		this.balanced = balanced;
+	}
+
 	public BinarySearchTreeImpl(BinarySearchTreeImpl<T> father) {
 		this.content = null;
 		this.leftSubtree = null;
 		this.rightSubtree = null;
 		this.father = father;
 		this.count = 0;
+		if (father != null) {
+			this.balanced = father.balanced;
+		}
 	}
 
 	private BinarySearchTreeImpl<T> emptyBST(BinarySearchTreeImpl<T> father) {
-		
+		emptyNodeCreated();
 		return new BinarySearchTreeImpl<T>(father);
 	}
 
+	/**
+	 * Anota un nodo vacio propio, distinto del arbol vacio compartido: el
+	 * de empty(), la copia de un arbol vacio o la raiz que se queda vacia
+	 * al eliminar su ultimo elemento.
+	 */
+	private static void emptyNodeCreated() {
+		TreeMetricsListener l = metricsListener;
+		if (l != null) {
+			l.emptySubtreeAllocated();
+		}
+	}
+
+	/**
+	 * Arbol vacio compartido por todos los huecos (hijos vacios) de todos
+	 * los arboles, en lugar de reservar dos arboles vacios (con su mapa de
+	 * etiquetas) por cada elemento insertado. Es inmutable y no tiene padre.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static final BinarySearchTreeImpl EMPTY_SUBTREE = new EmptySubtree();
+
+	@SuppressWarnings("unchecked")
+	static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> emptySubtree() {
+		return EMPTY_SUBTREE;
+	}
+
+	/**
+	 * Instrumentación opcional, común a todos los arboles: null mientras está
+	 * desactivada, y entonces cada operación instrumentada solo paga leer
+	 * este campo una vez.
+	 */
+	private static volatile TreeMetricsListener metricsListener;
+
+	/**
+	 * Activa la instrumentación de insert, contains, remove, removeAll y
+	 * getPath de todos los arboles, o la desactiva si listener es null.
+	 * 
+	 * @see TreeMetrics#enable()
+	 */
+	public static void setMetricsListener(TreeMetricsListener listener) {
+		metricsListener = listener;
+	}
+
+	public static TreeMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * Informa de una operación que buscó el elemento con
+	 * {@link #findNode(Comparable, int[])}: descent son las comparaciones y
+	 * la profundidad de ese descenso, y extraVisits los nodos recorridos
+	 * despues (al eliminar y recalcular hacia la raiz).
+	 */
+	private static void report(TreeMetricsListener l, TreeMetricsListener.Operation op, int[] descent,
+			int extraVisits) {
+		l.operation(op, descent[0], descent[0] + extraVisits, descent[1]);
+	}
+
+	private static final class EmptySubtree<T extends Comparable<? super T>> extends BinarySearchTreeImpl<T> {
+
+		@Override
+		void modified() {
+			//	Todas las operaciones que modifican el arbol pasan por aqui
+			throw new UnsupportedOperationException("immutable empty subtree");
+		}
+
+		@Override
+		public void setContent(T content) {
+			throw new UnsupportedOperationException("immutable empty subtree");
+		}
+
+		@Override
+		public void setTag(String k, Object v) {
+			throw new UnsupportedOperationException("immutable empty subtree");
+		}
+
+		@Override
+		public Map<String, Object> getTags() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public void setFather(BinarySearchTreeImpl<T> father) {
+			throw new UnsupportedOperationException("immutable empty subtree");
+		}
+	}
+
+	/**
+	 * Crea un nodo hoja con el elemento, con hijos vacios compartidos.
+	 */
+	private BinarySearchTreeImpl<T> newLeaf(T element, BinarySearchTreeImpl<T> father) {
+		BinarySearchTreeImpl<T> leaf = new BinarySearchTreeImpl<T>(father);
+		leaf.content = element;
+		leaf.count = 1;
+		leaf.height = 1;
+		leaf.subtreeSize = 1;
+		leaf.subtreeInstances = 1;
+		leaf.leftSubtree = emptySubtree();
+		leaf.rightSubtree = emptySubtree();
+		return leaf;
+	}
+
+	/**
+	 * Rellena este nodo, que debe estar vacio, con un elemento, su count y sus
+	 * etiquetas, y con los hijos vacios.
+	 * 
+	 * Lo usan los lectores que reconstruyen un arbol guardado con su forma
+	 * exacta, sin insertar ni comparar: se rellena la raiz, se cuelgan los
+	 * demas nodos con {@link #restoreChild} y después se llama a
+	 * {@link #restoreTotals()} en cada nodo, de los hijos hacia la raiz.
+	 */
+	void restore(T element, int count, Map<String, Object> tags) {
+		this.content = element;
+		this.count = count;
+		this.leftSubtree = emptySubtree();
+		this.rightSubtree = emptySubtree();
+		if (tags != null) {
+			for (Map.Entry<String, Object> e : tags.entrySet()) {
+				setTag(e.getKey(), e.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Crea el hijo izquierdo (o derecho) de este nodo, con father y los
+	 * datos dados; ver {@link #restore}.
+	 */
+	BinarySearchTreeImpl<T> restoreChild(boolean right, T element, int count, Map<String, Object> tags) {
+		BinarySearchTreeImpl<T> child = new BinarySearchTreeImpl<T>(this);
+		child.restore(element, count, tags);
+		if (right) {
+			this.rightSubtree = child;
+		} else {
+			this.leftSubtree = child;
+		}
+		return child;
+	}
+	
+	/**
+	 * Recalcula altura y totales de este nodo a partir de sus hijos, que ya
+	 * deben tenerlos bien; ver {@link #restore}.
+	 */
+	void restoreTotals() {
+		update();
+	}
+	
+	/**
+	 * Asigna este nodo como padre del sub-arbol dado, salvo que sea vacio
+	 * (el arbol vacio compartido no tiene padre).
+	 */
+	private void adopt(BinarySearchTreeImpl<T> child) {
+		if (child.content != null) {
+			child.father = this;
+		}
+	}
+
+	/**
+	 * Deja vacio un nodo que ya no forma parte del arbol.
+	 */
+	private void detach() {
+		this.content = null;
+		this.count = 0;
+		this.height = 0;
+		this.subtreeSize = 0;
+		this.subtreeInstances = 0;
+		this.father = null;
+		this.leftSubtree = null;
+		this.rightSubtree = null;
+	}
+
 	
 	
 	/**
@@ -152,6 +358,161 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		}
 		return count;
 	}
+	
+	/**
+	 * Inserta de golpe los elementos que no sean null de una coleccion y deja
+	 * el arbol completo equilibrado en altura (reconstruyendo su forma).
+	 * 
+	 * Si la coleccion ya viene ordenada se aprovecha el orden y la
+	 * construccion es O(n + m); si no, primero se ordena. Los elementos
+	 * iguales se agrupan en el count de un unico nodo, y los nodos que ya
+	 * estaban en el arbol se conservan con sus etiquetas.
+	 * 
+	 * A diferencia de {@link #insert(Collection)}, no se inserta cada elemento
+	 * como hoja, asi que la forma final no depende del orden de entrada.
+	 * 
+	 * @param elements valores a insertar.
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	public int bulkInsert(Collection<T> elements) {
+		Object[] nuevos = new Object[elements.size()];
+		int n = 0;
+		for (T elem : elements) {
+			if (elem != null) {
+				nuevos[n++] = elem;
+			}
+		}
+		return bulkLoad(nuevos, n);
+	}
+	
+	/**
+	 * Como {@link #bulkInsert(Collection)}, con los elementos de un array.
+	 * 
+	 * @param elements elementos a insertar.
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	@SafeVarargs
+	public final int bulkInsert(T... elements) {
+		Object[] nuevos = new Object[elements.length];
+		int n = 0;
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] != null) {
+				nuevos[n++] = elements[i];
+			}
+		}
+		return bulkLoad(nuevos, n);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private int bulkLoad(Object[] nuevos, int n) {
+		if (n == 0) {
+			return 0;
+		}
+		modified();
+		
+		//	Solo se ordena si la entrada no viene ya ordenada
+		for (int i = 1; i < n; i++) {
+			if (((T) nuevos[i - 1]).compareTo((T) nuevos[i]) > 0) {
+				Arrays.sort(nuevos, 0, n);
+				break;
+			}
+		}
+		
+		//	Mezcla los nodos actuales (en inorden) con los nuevos elementos
+		List<BinarySearchTreeImpl<T>> actuales = inorderNodes();
+		List<BinarySearchTreeImpl<T>> nodos = new ArrayList<BinarySearchTreeImpl<T>>(actuales.size() + n);
+		int thisPos = -1;
+		int i = 0;
+		int j = 0;
+		while (i < actuales.size() || j < n) {
+			int cmp;
+			if (j == n) {
+				cmp = -1;
+			} else if (i == actuales.size()) {
+				cmp = 1;
+			} else {
+				cmp = actuales.get(i).content.compareTo((T) nuevos[j]);
+			}
+			if (cmp < 0) {
+				if (actuales.get(i) == this) {
+					thisPos = nodos.size();
+				}
+				nodos.add(actuales.get(i++));
+			} else if (cmp == 0) {
+				actuales.get(i).count++;
+				j++;
+			} else {
+				//	Agrupa los iguales consecutivos en un unico nodo
+				BinarySearchTreeImpl<T> nodo = newLeaf((T) nuevos[j++], this);
+				while (j < n && nodo.content.compareTo((T) nuevos[j]) == 0) {
+					nodo.count++;
+					j++;
+				}
+				nodos.add(nodo);
+			}
+		}
+		
+		//	Este objeto tiene que seguir siendo la raiz: se le pasa el
+		//	elemento central (y el suyo, si tenia, al nodo de ese elemento)
+		int mid = (nodos.size() - 1) >>> 1;
+		BinarySearchTreeImpl<T> central = nodos.get(mid);
+		if (central != this) {
+			if (thisPos >= 0) {
+				swapRoot(central);
+				nodos.set(thisPos, central);
+			} else {
+				this.content = central.content;
+				this.count = central.count;
+				this.tags = central.tags;
+			}
+			nodos.set(mid, this);
+		}
+		link(nodos, 0, nodos.size() - 1, father);
+		if (father != null) {
+			father.retrace();
+		}
+		return n;
+	}
+	
+	/**
+	 * Devuelve los nodos de este arbol en inorden.
+	 */
+	private List<BinarySearchTreeImpl<T>> inorderNodes() {
+		List<BinarySearchTreeImpl<T>> result = new ArrayList<BinarySearchTreeImpl<T>>(subtreeSize);
+		Deque<BinarySearchTreeImpl<T>> pending = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		BinarySearchTreeImpl<T> node = this;
+		while (node.content != null || ! pending.isEmpty()) {
+			if (node.content != null) {
+				pending.push(node);
+				node = node.getLeftBST();
+			} else {
+				node = pending.pop();
+				result.add(node);
+				node = node.getRightBST();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Enlaza los nodos [lo, hi] (ordenados) como un arbol equilibrado en
+	 * altura cuya raiz es el central, y devuelve esa raiz. La recursion
+	 * solo llega a profundidad log2(n).
+	 */
+	private static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> link(
+			List<BinarySearchTreeImpl<T>> nodos, int lo, int hi, BinarySearchTreeImpl<T> father) {
+		if (lo > hi) {
+			return emptySubtree();
+		}
+		int mid = (lo + hi) >>> 1;
+		BinarySearchTreeImpl<T> nodo = nodos.get(mid);
+		nodo.father = father;
+		nodo.setLeftBST(link(nodos, lo, mid - 1, nodo));
+		nodo.setRightBST(link(nodos, mid + 1, hi, nodo));
+		nodo.update();
+		return nodo;
+	}
+	
 	/**
 	 * Inserta (como hoja) un nuevo elemento en el arbol de busqueda.
 	 * 
@@ -168,28 +529,212 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @throws IllegalArgumentException si element es null
 	 */
 	public boolean insert(T element) {
-		boolean insrt;
 		if(element == null) {
 			throw new IllegalArgumentException();
 		}
-		if(!isEmpty()) {
-			if(element.compareTo(this.content)<0) {
-				insrt = getLeftBST().insert(element);
-			}else
-			if(element.compareTo(this.content)>0) {
-				insrt = getRightBST().insert(element);
+		modified();
+		if(isEmpty()) {
+			this.content = element;
+			this.count = 1;
+			this.height = 1;
+			this.subtreeSize = 1;
+			this.subtreeInstances = 1;
+			setLeftBST(emptySubtree());
+			setRightBST(emptySubtree());
+			TreeMetricsListener l = metricsListener;
+			if (l != null) {
+				l.operation(TreeMetricsListener.Operation.INSERT, 0, 1, 0);
+			}
+			return true;
+		}
+		//	Baja iterativamente hasta el nodo bajo cuyo hueco (arbol vacio) le corresponde
+		BinarySearchTreeImpl<T> node = this;
+		int comparisons = 0;
+		boolean added = true;
+		while(true) {
+			int cmp = element.compareTo(node.content);
+			comparisons++;
+			if(cmp < 0) {
+				if(node.getLeftBST().content == null) {
+					node.setLeftBST(newLeaf(element, node));
+					break;
+				}
+				node = node.getLeftBST();
+			}else if(cmp > 0) {
+				if(node.getRightBST().content == null) {
+					node.setRightBST(newLeaf(element, node));
+					break;
+				}
+				node = node.getRightBST();
 			}else {
-				count++;
-				insrt = false;
+				node.count++;
+				added = false;
+				break;
 			}
-		}else {
-			this.content = element;
-			this.count++;
-			setLeftBST(new BinarySearchTreeImpl<T>(this));
-			setRightBST(new BinarySearchTreeImpl<T>(this));
-			insrt = true;
 		}
-	 return insrt;
+		int visited = comparisons + node.retrace();
+		TreeMetricsListener l = metricsListener;
+		if (l != null) {
+			//	La hoja nueva queda un nivel por debajo del ultimo nodo comparado
+			l.operation(TreeMetricsListener.Operation.INSERT, comparisons, visited,
+					added ? comparisons : comparisons - 1);
+		}
+		return added;
+	}
+
+	/**
+	 * Indica si el arbol se mantiene equilibrado (AVL).
+	 *
+	 * @return cierto si se construyo en modo equilibrado
+	 */
+	public boolean isBalanced() {
+		return balanced;
+	}
+
+	/**
+	 * Devuelve la altura del arbol: 0 si es vacio, 1 si es hoja.
+	 *
+	 * @return altura del arbol
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * Devuelve la raiz del arbol completo al que pertenece este sub-arbol.
+	 */
+	BinarySearchTreeImpl<T> root() {
+		BinarySearchTreeImpl<T> node = this;
+		while (node.father != null) {
+			node = node.father;
+		}
+		return node;
+	}
+
+	/**
+	 * Anota una modificacion en la raiz, para que los iteradores abiertos
+	 * sobre el arbol fallen en lugar de devolver datos inconsistentes.
+	 */
+	void modified() {
+		root().modCount++;
+	}
+
+	private static int heightOf(BinarySearchTreeImpl<?> t) {
+		return (t == null) ? 0 : t.height;
+	}
+
+	private int balanceFactor() {
+		return heightOf(getLeftBST()) - heightOf(getRightBST());
+	}
+
+	private void updateHeight() {
+		height = 1 + Math.max(heightOf(getLeftBST()), heightOf(getRightBST()));
+	}
+
+	private static int sizeOf(BinarySearchTreeImpl<?> t) {
+		return (t == null) ? 0 : t.subtreeSize;
+	}
+
+	private static long instancesOf(BinarySearchTreeImpl<?> t) {
+		return (t == null) ? 0 : t.subtreeInstances;
+	}
+
+	/**
+	 * Recalcula altura y totales del sub-arbol a partir de sus hijos.
+	 */
+	private void update() {
+		updateHeight();
+		subtreeSize = 1 + sizeOf(getLeftBST()) + sizeOf(getRightBST());
+		subtreeInstances = count + instancesOf(getLeftBST()) + instancesOf(getRightBST());
+	}
+
+	/**
+	 * Recalcula altura y totales desde este nodo hacia la raiz, rotando (en
+	 * modo equilibrado) los nodos que queden desequilibrados.
+	 */
+	private int retrace() {
+		int visited = 0;
+		BinarySearchTreeImpl<T> node = this;
+		while (node != null) {
+			node.update();
+			if (node.balanced) {
+				node.rebalance();
+			}
+			node = node.father;
+			visited++;
+		}
+		return visited;
+	}
+
+	private void rebalance() {
+		int bf = balanceFactor();
+		if (bf > 1) {
+			if (getLeftBST().balanceFactor() < 0) {
+				getLeftBST().rotateLeft();
+			}
+			rotateRight();
+		} else if (bf < -1) {
+			if (getRightBST().balanceFactor() > 0) {
+				getRightBST().rotateRight();
+			}
+			rotateLeft();
+		}
+	}
+
+	/**
+	 * Intercambia elemento, instancias y etiquetas entre este nodo y otro.
+	 * Las rotaciones se hacen asi para que el nodo raiz de cada sub-arbol
+	 * (y por tanto la referencia que tenga su padre o el usuario) no cambie.
+	 */
+	private void swapRoot(BinarySearchTreeImpl<T> other) {
+		T c = content;
+		content = other.content;
+		other.content = c;
+		int n = count;
+		count = other.count;
+		other.count = n;
+		Map<String, Object> t = tags;
+		tags = other.tags;
+		other.tags = t;
+	}
+
+	/*
+	 *      N             L'
+	 *     / \           / \
+	 *    L   Z   =>    X   N'
+	 *   / \               / \
+	 *  X   Y             Y   Z
+	 *
+	 * El objeto de L pasa a ser el hijo derecho, con el contenido de N.
+	 */
+	private void rotateRight() {
+		BinarySearchTreeImpl<T> l = getLeftBST();
+		swapRoot(l);
+		BinarySearchTreeImpl<T> x = l.getLeftBST();
+		BinarySearchTreeImpl<T> z = getRightBST();
+		setLeftBST(x);
+		adopt(x);
+		l.setLeftBST(l.getRightBST());
+		l.setRightBST(z);
+		l.adopt(z);
+		setRightBST(l);
+		l.update();
+		update();
+	}
+
+	private void rotateLeft() {
+		BinarySearchTreeImpl<T> r = getRightBST();
+		swapRoot(r);
+		BinarySearchTreeImpl<T> z = r.getRightBST();
+		BinarySearchTreeImpl<T> x = getLeftBST();
+		setRightBST(z);
+		adopt(z);
+		r.setRightBST(r.getLeftBST());
+		r.setLeftBST(x);
+		r.adopt(x);
+		setLeftBST(r);
+		r.update();
+		update();
 	}
 
 	/**
@@ -203,23 +748,65 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 *
 	 */
 	public boolean contains(T element) {
-		boolean contns;
 		if(element == null) {
 			throw new IllegalArgumentException();
 		}
-		if(!isEmpty()) {
-			if(element.compareTo(this.content)<0) {
-				contns = getLeftBST().contains(element);
-			}else
-			if(element.compareTo(this.content)>0) {
-				contns = getRightBST().contains(element);
+		TreeMetricsListener l = metricsListener;
+		if (l == null) {
+			return findNode(element) != null;
+		}
+		int[] descent = new int[2];
+		BinarySearchTreeImpl<T> node = findNode(element, descent);
+		report(l, TreeMetricsListener.Operation.CONTAINS, descent, 0);
+		return node != null;
+	}
+
+	/**
+	 * Busca iterativamente el nodo que contiene el elemento, con una sola
+	 * comparacion por nivel.
+	 * 
+	 * @param element valor a buscar, no null.
+	 * @return el sub-arbol cuya raiz es el elemento, o null si no esta
+	 */
+	BinarySearchTreeImpl<T> findNode(T element) {
+		BinarySearchTreeImpl<T> node = this;
+		while(node != null && node.content != null) {
+			int cmp = element.compareTo(node.content);
+			if(cmp < 0) {
+				node = node.getLeftBST();
+			}else if(cmp > 0) {
+				node = node.getRightBST();
 			}else {
-				contns = true;
+				return node;
 			}
-		}else {
-			contns = false;
 		}
-		return contns;
+		return null;
+	}
+
+	/**
+	 * Como {@link #findNode(Comparable)}, pero deja en descent[0] las
+	 * comparaciones hechas y en descent[1] la profundidad donde acabó el
+	 * descenso (la del nodo encontrado, o la del hueco si no esta). Solo se
+	 * usa con la instrumentación activa, para no cargar el camino normal.
+	 */
+	private BinarySearchTreeImpl<T> findNode(T element, int[] descent) {
+		BinarySearchTreeImpl<T> node = this;
+		BinarySearchTreeImpl<T> found = null;
+		int comparisons = 0;
+		int depth = 0;
+		while(node != null && node.content != null) {
+			int cmp = element.compareTo(node.content);
+			comparisons++;
+			if(cmp == 0) {
+				found = node;
+				break;
+			}
+			node = (cmp < 0) ? node.getLeftBST() : node.getRightBST();
+			depth++;
+		}
+		descent[0] = comparisons;
+		descent[1] = depth;
+		return found;
 	}
 	
 	/**
@@ -234,38 +821,21 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @return cadena con el contenido del árbol incluyendo su atributo count entre paréntesis si elemento tiene más de 1 instancia
 	 */
 	public String toString() {
-		if (! isEmpty()) {
-			//	Construye el resultado de forma eficiente
-			StringBuffer result = new StringBuffer();
-				
-			//	Raz
-			result.append("{" + content.toString());
-			if(count > 1)
-				result.append("(" + count + ")");
-			
-			if (! tags.isEmpty()) {
-				result.append(" [");
-				
-				List<String> sk = new LinkedList<String>(tags.keySet());
-				
-				Collections.sort(sk);
-				for (String k : sk) {
-					result.append("(" + k + ", " + tags.get(k) + "), ");
-				}
-				result.delete(result.length() - 2, result.length());
-				result.append("]");
-			}
-			
-			//	Y cada sub-rbol
-				result.append(", " + getLeftBST().toString());
-				result.append(", " + getRightBST().toString());
-			//	Cierra la "}" de este rbol
-			result.append("}");
-			
-			return result.toString();
-		} else {
-			return AbstractTreeADT.EMPTY_TREE_MARK;
-		}		
+		//	El formato es el de AbstractTreeADT; el count se añade en writeRoot
+		return super.toString();
+	}
+	
+	/**
+	 * Escribe el elemento del nodo raíz, su count entre paréntesis si es
+	 * mayor que 1, y sus etiquetas.
+	 */
+	@Override
+	protected void writeRoot(Appendable out) throws IOException {
+		out.append(String.valueOf(content));
+		if (count > 1) {
+			out.append('(').append(Integer.toString(count)).append(')');
+		}
+		writeTags(out, tags);
 	}
 
 		/**
@@ -336,26 +906,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @return iterador para el recorrido en anchura
 	 */
     public Iterator<T> iteratorWidth() {
-    	LinkedList<BinarySearchTreeImpl<T>> cola=new LinkedList<BinarySearchTreeImpl<T>>();
-    	LinkedList<T> resultados = new LinkedList<T>();
-    	BinarySearchTreeImpl<T> aux;
-    	T elemento;
-    	if(!this.isEmpty()) {
-    	cola.addLast(this);
-    	}
-    	while(!(cola.isEmpty())) {
-    		aux=cola.removeFirst();
-    		elemento=aux.content;
-    		resultados.add(elemento);
-    		
-    		if(!aux.getLeftBST().isEmpty()) {
-    			cola.addLast(aux.getLeftBST());
-    		}
-    		if(!aux.getRightBST().isEmpty()) {
-    			cola.addLast(aux.getRightBST());
-    		}
-    	}
-    	return resultados.iterator();
+    	return new WidthIterator(false);
 	}
 	
 	/**
@@ -371,29 +922,64 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @return iterador para el recorrido en anchura
 	 */
      public Iterator<T> iteratorWidthInstances() {
-    	LinkedList<BinarySearchTreeImpl<T>> cola=new LinkedList<BinarySearchTreeImpl<T>>();
-    	LinkedList<T> resultados = new LinkedList<T>();
-    	BinarySearchTreeImpl<T> aux;
-    	T elemento;
-    	if(!this.isEmpty()) {
-    	cola.addLast(this);
-    	}
-    	while(!(cola.isEmpty())) {
-    		aux=cola.removeFirst();
-    		elemento=aux.content;
-    		for(int i=0;i<aux.count;i++) {
-    			resultados.add(elemento);
-    		}
-    		
-    		if(!aux.getLeftBST().isEmpty()) {
-    				cola.addLast(aux.getLeftBST());
-    		}
-    		if(!aux.getRightBST().isEmpty()) {
-    				cola.addLast(aux.getRightBST());
-    		}
-    	}
-    	return resultados.iterator();
+    	return new WidthIterator(true);
 	 }
+     
+     /**
+      * Recorrido en anchura perezoso: solo guarda en la cola los nodos
+      * pendientes del siguiente nivel, y repite el elemento actual tantas
+      * veces como indique su count (si se recorren instancias).
+      * 
+      * Falla con ConcurrentModificationException si el arbol se modifica
+      * mientras se recorre.
+      */
+     private class WidthIterator implements Iterator<T> {
+    	 
+    	 private final ArrayDeque<BinarySearchTreeImpl<T>> cola = new ArrayDeque<BinarySearchTreeImpl<T>>();
+    	 private final boolean instances;
+    	 private final BinarySearchTreeImpl<T> root;
+    	 private final int expectedModCount;
+    	 private T current;
+    	 private int remaining;
+    	 
+    	 WidthIterator(boolean instances) {
+    		 this.instances = instances;
+    		 this.root = root();
+    		 this.expectedModCount = root.modCount;
+    		 if (!isEmpty()) {
+    			 cola.addLast(BinarySearchTreeImpl.this);
+    		 }
+    	 }
+    	 
+    	 @Override
+    	 public boolean hasNext() {
+    		 return remaining > 0 || !cola.isEmpty();
+    	 }
+    	 
+    	 @Override
+    	 public T next() {
+    		 if (root.modCount != expectedModCount) {
+    			 throw new ConcurrentModificationException();
+    		 }
+    		 if (remaining > 0) {
+    			 remaining--;
+    			 return current;
+    		 }
+    		 BinarySearchTreeImpl<T> aux = cola.pollFirst();
+    		 if (aux == null) {
+    			 throw new NoSuchElementException();
+    		 }
+    		 if (aux.getLeftBST().content != null) {
+    			 cola.addLast(aux.getLeftBST());
+    		 }
+    		 if (aux.getRightBST().content != null) {
+    			 cola.addLast(aux.getRightBST());
+    		 }
+    		 current = aux.content;
+    		 remaining = instances ? aux.count - 1 : 0;
+    		 return current;
+    	 }
+     }
 	
 		
 	/**
@@ -408,11 +994,8 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @return el numero de elementos diferentes del arbol 
 	 */
     public int size() {
-		if(!isEmpty()) {
-			return 1 + getLeftBST().size() + getRightBST().size();
-		}else {
-			return 0;
-		}
+		//	Cada nodo mantiene el total de su sub-arbol
+		return subtreeSize;
 	}
 	
     /**
@@ -422,15 +1005,677 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * 
 	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
 	 * 
-	 * la llamada a ejemplo.instancesCount() devolvera 11
+	 * la llamada a ejemplo.instancesCount() devolvera 11
+	 * 
+	 * @return el número de instancias de elementos del arbol 
+	 */
+	public int instancesCount() {
+		return (int) subtreeInstances;
+	}
+	
+	/**
+	 * Devuelve la posicion que ocupa (o que ocuparia) el elemento en orden
+	 * ascendente, contando solo elementos diferentes: el numero de elementos
+	 * del arbol menores que el dado.
+	 * 
+	 * Por ejemplo, con el arbol ejemplo=
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * ejemplo.rank(10) devolvera 0, ejemplo.rank(50) devolvera 3 y
+	 * ejemplo.rank(55) devolvera 4
+	 * 
+	 * @param element elemento a buscar
+	 * @return numero de elementos diferentes menores que element
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int rank(T element) {
+		if(element == null) {
+			throw new IllegalArgumentException();
+		}
+		int result = 0;
+		BinarySearchTreeImpl<T> node = this;
+		while(node.content != null) {
+			int cmp = element.compareTo(node.content);
+			if(cmp < 0) {
+				node = node.getLeftBST();
+			}else {
+				result += node.getLeftBST().subtreeSize;
+				if(cmp == 0) {
+					break;
+				}
+				result++;
+				node = node.getRightBST();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Como {@link #rank(Comparable)}, pero teniendo en cuenta las instancias:
+	 * el numero de instancias de elementos menores que el dado.
+	 * 
+	 * Con el arbol del ejemplo anterior, ejemplo.rankInstances(50) devolvera 7
+	 * 
+	 * @param element elemento a buscar
+	 * @return numero de instancias menores que element
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public long rankInstances(T element) {
+		if(element == null) {
+			throw new IllegalArgumentException();
+		}
+		long result = 0;
+		BinarySearchTreeImpl<T> node = this;
+		while(node.content != null) {
+			int cmp = element.compareTo(node.content);
+			if(cmp < 0) {
+				node = node.getLeftBST();
+			}else {
+				result += node.getLeftBST().subtreeInstances;
+				if(cmp == 0) {
+					break;
+				}
+				result += node.count;
+				node = node.getRightBST();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Devuelve el k-esimo elemento diferente en orden ascendente (empezando en 0).
+	 * 
+	 * Con el arbol del ejemplo anterior, ejemplo.select(0) devolvera 10 y
+	 * ejemplo.select(3) devolvera 50
+	 * 
+	 * @param k posicion del elemento, entre 0 y size()-1
+	 * @return el elemento en esa posicion
+	 * @throws IndexOutOfBoundsException si no hay elemento en esa posicion
+	 */
+	public T select(int k) {
+		if(k < 0 || k >= subtreeSize) {
+			throw new IndexOutOfBoundsException("k=" + k + ", size=" + subtreeSize);
+		}
+		BinarySearchTreeImpl<T> node = this;
+		while(true) {
+			int left = node.getLeftBST().subtreeSize;
+			if(k < left) {
+				node = node.getLeftBST();
+			}else if(k == left) {
+				return node.content;
+			}else {
+				k -= left + 1;
+				node = node.getRightBST();
+			}
+		}
+	}
+	
+	/**
+	 * Devuelve el elemento que ocupa la posicion k (empezando en 0) en orden
+	 * ascendente contando todas las instancias, es decir, el que devolveria
+	 * un recorrido inorden que repitiera cada elemento count veces.
+	 * 
+	 * Con el arbol del ejemplo anterior, ejemplo.selectInstance(1) devolvera 30,
+	 * ejemplo.selectInstance(2) devolvera 30 y ejemplo.selectInstance(3) devolvera 40
+	 * 
+	 * @param k posicion de la instancia, entre 0 y instancesCount()-1
+	 * @return el elemento de esa instancia
+	 * @throws IndexOutOfBoundsException si no hay instancia en esa posicion
+	 */
+	public T selectInstance(long k) {
+		if(k < 0 || k >= subtreeInstances) {
+			throw new IndexOutOfBoundsException("k=" + k + ", instances=" + subtreeInstances);
+		}
+		BinarySearchTreeImpl<T> node = this;
+		while(true) {
+			long left = node.getLeftBST().subtreeInstances;
+			if(k < left) {
+				node = node.getLeftBST();
+			}else if(k < left + node.count) {
+				return node.content;
+			}else {
+				k -= left + node.count;
+				node = node.getRightBST();
+			}
+		}
+	}
+	
+	/**
+	 * Devuelve un iterador que recorre en orden ascendente los elementos
+	 * diferentes comprendidos entre from y to.
+	 * 
+	 * Es perezoso: busca el primer elemento del rango bajando desde la raiz
+	 * y despues avanza al sucesor con los enlaces father, así que solo visita
+	 * los sub-árboles que se solapan con el rango (O(h + k) para k elementos).
+	 * 
+	 * Por ejemplo, con el arbol ejemplo=
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * ejemplo.subRange(30, false, 60, true) recorrera 40, 50, 60
+	 * 
+	 * @param from extremo inferior
+	 * @param fromInclusive cierto si from forma parte del rango
+	 * @param to extremo superior
+	 * @param toInclusive cierto si to forma parte del rango
+	 * @return iterador sobre los elementos del rango
+	 * @throws IllegalArgumentException si algun extremo es null o from es mayor que to
+	 */
+	public Iterator<T> subRange(T from, boolean fromInclusive, T to, boolean toInclusive) {
+		checkRange(from, to);
+		return new RangeIterator(from, fromInclusive, to, toInclusive, false, false);
+	}
+	
+	/**
+	 * Como {@link #subRange(Comparable, boolean, Comparable, boolean)}, pero
+	 * repitiendo cada elemento tantas veces como instancias tenga.
+	 * 
+	 * Con el arbol del ejemplo anterior, ejemplo.subRangeInstances(30, true, 40, true)
+	 * recorrera 30, 30, 40, 40, 40, 40
+	 */
+	public Iterator<T> subRangeInstances(T from, boolean fromInclusive, T to, boolean toInclusive) {
+		checkRange(from, to);
+		return new RangeIterator(from, fromInclusive, to, toInclusive, true, false);
+	}
+	
+	/**
+	 * Devuelve un iterador, en orden ascendente, sobre los elementos
+	 * diferentes menores que to (o iguales, si inclusive).
+	 * 
+	 * @param to extremo superior
+	 * @param inclusive cierto si to forma parte del rango
+	 * @return iterador sobre los elementos del rango
+	 * @throws IllegalArgumentException si to es null
+	 */
+	public Iterator<T> headRange(T to, boolean inclusive) {
+		checkRange(null, to);
+		return new RangeIterator(null, false, to, inclusive, false, false);
+	}
+	
+	/**
+	 * Como {@link #headRange(Comparable, boolean)}, repitiendo las instancias.
+	 */
+	public Iterator<T> headRangeInstances(T to, boolean inclusive) {
+		checkRange(null, to);
+		return new RangeIterator(null, false, to, inclusive, true, false);
+	}
+	
+	/**
+	 * Devuelve un iterador, en orden ascendente, sobre los elementos
+	 * diferentes mayores que from (o iguales, si inclusive).
+	 * 
+	 * @param from extremo inferior
+	 * @param inclusive cierto si from forma parte del rango
+	 * @return iterador sobre los elementos del rango
+	 * @throws IllegalArgumentException si from es null
+	 */
+	public Iterator<T> tailRange(T from, boolean inclusive) {
+		checkRange(from, null);
+		return new RangeIterator(from, inclusive, null, false, false, false);
+	}
+	
+	/**
+	 * Como {@link #tailRange(Comparable, boolean)}, repitiendo las instancias.
+	 */
+	public Iterator<T> tailRangeInstances(T from, boolean inclusive) {
+		checkRange(from, null);
+		return new RangeIterator(from, inclusive, null, false, true, false);
+	}
+	
+	/**
+	 * Devuelve una vista del arbol como {@link NavigableSet} de sus elementos
+	 * diferentes, sin copiarlos. Los cambios en la vista modifican el arbol.
+	 * 
+	 * @return el conjunto navegable respaldado por este arbol
+	 */
+	public NavigableSet<T> asNavigableSet() {
+		return new BinarySearchTreeSet<T>(this);
+	}
+	
+	/**
+	 * Devuelve una vista del arbol como multiconjunto, con las instancias de
+	 * cada elemento, sin copiarlo.
+	 * 
+	 * @return el multiconjunto respaldado por este arbol
+	 */
+	public BinarySearchTreeMultiset<T> asMultiset() {
+		return new BinarySearchTreeMultiset<T>(this);
+	}
+	
+	/**
+	 * Cuenta los elementos diferentes entre from y to sin recorrerlos: con
+	 * los totales de cada sub-árbol basta con dos descensos, O(h).
+	 * 
+	 * Con el arbol del ejemplo anterior, ejemplo.countInRange(30, false, 60, true)
+	 * devolvera 3
+	 * 
+	 * @param from extremo inferior
+	 * @param fromInclusive cierto si from forma parte del rango
+	 * @param to extremo superior
+	 * @param toInclusive cierto si to forma parte del rango
+	 * @return numero de elementos diferentes en el rango
+	 * @throws IllegalArgumentException si algun extremo es null o from es mayor que to
+	 */
+	public int countInRange(T from, boolean fromInclusive, T to, boolean toInclusive) {
+		checkRange(from, to);
+		//	Los menores o iguales que to, menos los que quedan por debajo de from
+		long rx = below(to, toInclusive, false) - below(from, !fromInclusive, false);
+		return (int) Math.max(0, rx);
+	}
+	
+	/**
+	 * Como {@link #countInRange(Comparable, boolean, Comparable, boolean)},
+	 * pero contando las instancias.
+	 * 
+	 * Con el arbol del ejemplo anterior, ejemplo.instancesCountInRange(30, true, 50, false)
+	 * devolvera 6
+	 */
+	public long instancesCountInRange(T from, boolean fromInclusive, T to, boolean toInclusive) {
+		checkRange(from, to);
+		long rx = below(to, toInclusive, true) - below(from, !fromInclusive, true);
+		return Math.max(0, rx);
+	}
+	
+	private void checkRange(T from, T to) {
+		if(from == null && to == null) {
+			throw new IllegalArgumentException();
+		}
+		if(from != null && to != null && from.compareTo(to) > 0) {
+			throw new IllegalArgumentException("from > to");
+		}
+	}
+	
+	/**
+	 * Numero de elementos (o de instancias) menores que bound, o menores o
+	 * iguales si inclusive, en un solo descenso.
+	 */
+	long below(T bound, boolean inclusive, boolean instances) {
+		long result = 0;
+		BinarySearchTreeImpl<T> node = this;
+		while(node.content != null) {
+			int cmp = bound.compareTo(node.content);
+			if(cmp < 0) {
+				node = node.getLeftBST();
+			}else {
+				BinarySearchTreeImpl<T> left = node.getLeftBST();
+				result += instances ? left.subtreeInstances : left.subtreeSize;
+				if(cmp == 0 && !inclusive) {
+					break;
+				}
+				result += instances ? node.count : 1;
+				if(cmp == 0) {
+					break;
+				}
+				node = node.getRightBST();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Nodo con el menor elemento mayor que from (o igual, si inclusive); con
+	 * from null, el menor del arbol. Devuelve null si no lo hay.
+	 */
+	BinarySearchTreeImpl<T> lowestNode(T from, boolean inclusive) {
+		BinarySearchTreeImpl<T> best = null;
+		BinarySearchTreeImpl<T> node = this;
+		while(node.content != null) {
+			int cmp = (from == null) ? 1 : node.content.compareTo(from);
+			if(cmp == 0 && inclusive) {
+				return node;
+			}
+			if(cmp > 0) {
+				best = node;
+				node = node.getLeftBST();
+			}else {
+				node = node.getRightBST();
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Nodo con el mayor elemento menor que to (o igual, si inclusive); con
+	 * to null, el mayor del arbol. Devuelve null si no lo hay.
+	 */
+	BinarySearchTreeImpl<T> highestNode(T to, boolean inclusive) {
+		BinarySearchTreeImpl<T> best = null;
+		BinarySearchTreeImpl<T> node = this;
+		while(node.content != null) {
+			int cmp = (to == null) ? -1 : node.content.compareTo(to);
+			if(cmp == 0 && inclusive) {
+				return node;
+			}
+			if(cmp < 0) {
+				best = node;
+				node = node.getRightBST();
+			}else {
+				node = node.getLeftBST();
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Sucesor en inorden de node dentro de este sub-árbol, subiendo por los
+	 * enlaces father cuando no tiene hijo derecho; null si es el ultimo.
+	 */
+	BinarySearchTreeImpl<T> successor(BinarySearchTreeImpl<T> node) {
+		if(node.getRightBST().content != null) {
+			node = node.getRightBST();
+			while(node.getLeftBST().content != null) {
+				node = node.getLeftBST();
+			}
+			return node;
+		}
+		while(node != this) {
+			BinarySearchTreeImpl<T> f = node.father;
+			if(f.getLeftBST() == node) {
+				return f;
+			}
+			node = f;
+		}
+		return null;
+	}
+	
+	/**
+	 * Predecesor en inorden de node dentro de este sub-árbol, simetrico de
+	 * {@link #successor(BinarySearchTreeImpl)}; null si es el primero.
+	 */
+	BinarySearchTreeImpl<T> predecessor(BinarySearchTreeImpl<T> node) {
+		if(node.getLeftBST().content != null) {
+			node = node.getLeftBST();
+			while(node.getRightBST().content != null) {
+				node = node.getRightBST();
+			}
+			return node;
+		}
+		while(node != this) {
+			BinarySearchTreeImpl<T> f = node.father;
+			if(f.getRightBST() == node) {
+				return f;
+			}
+			node = f;
+		}
+		return null;
+	}
+	
+	/**
+	 * Elimina node (con todas sus instancias) o solo una de sus instancias,
+	 * para las vistas que ya tienen localizado el nodo.
+	 */
+	void removeNode(BinarySearchTreeImpl<T> node, boolean allInstances) {
+		modified();
+		if(allInstances) {
+			node.deleteNode();
+		}else {
+			removeOne(node);
+		}
+	}
+	
+	/**
+	 * Iterador sobre un rango en cualquiera de los dos sentidos. from y to
+	 * pueden ser null (rango abierto por ese lado).
+	 */
+	Iterator<T> rangeIterator(T from, boolean fromInclusive, T to, boolean toInclusive,
+			boolean instances, boolean descending) {
+		return new RangeIterator(from, fromInclusive, to, toInclusive, instances, descending);
+	}
+	
+	/**
+	 * Recorrido inorden perezoso de un rango: empieza en el primer nodo del
+	 * rango y avanza con {@link BinarySearchTreeImpl#successor} (o retrocede
+	 * con predecessor) hasta salirse del otro extremo. Falla con
+	 * ConcurrentModificationException si el arbol se modifica por otra via.
+	 * 
+	 * remove() elimina el elemento devuelto (una instancia, si se recorren
+	 * instancias) y vuelve a buscar el siguiente, ya que al borrar se mueven
+	 * contenidos entre nodos.
+	 */
+	private class RangeIterator implements Iterator<T> {
+		
+		private final T from;
+		private final boolean fromInclusive;
+		private final T to;
+		private final boolean toInclusive;
+		private final boolean instances;
+		private final boolean descending;
+		private final BinarySearchTreeImpl<T> root;
+		private int expectedModCount;
+		private BinarySearchTreeImpl<T> next;
+		private T current;
+		private int remaining;
+		private boolean canRemove;
+		
+		RangeIterator(T from, boolean fromInclusive, T to, boolean toInclusive,
+				boolean instances, boolean descending) {
+			this.from = from;
+			this.fromInclusive = fromInclusive;
+			this.to = to;
+			this.toInclusive = toInclusive;
+			this.instances = instances;
+			this.descending = descending;
+			this.root = root();
+			this.expectedModCount = root.modCount;
+			this.next = descending ? inRange(highestNode(to, toInclusive))
+					: inRange(lowestNode(from, fromInclusive));
+		}
+		
+		//	Solo hay que comprobar el extremo hacia el que se avanza
+		private BinarySearchTreeImpl<T> inRange(BinarySearchTreeImpl<T> node) {
+			T end = descending ? from : to;
+			if(node == null || end == null) {
+				return node;
+			}
+			int cmp = node.content.compareTo(end);
+			if(descending) {
+				cmp = -cmp;
+			}
+			return (cmp < 0 || (cmp == 0 && (descending ? fromInclusive : toInclusive))) ? node : null;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return remaining > 0 || next != null;
+		}
+		
+		@Override
+		public T next() {
+			if(root.modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			canRemove = true;
+			if(remaining > 0) {
+				remaining--;
+				return current;
+			}
+			if(next == null) {
+				canRemove = false;
+				throw new NoSuchElementException();
+			}
+			BinarySearchTreeImpl<T> node = next;
+			next = inRange(descending ? predecessor(node) : successor(node));
+			current = node.content;
+			remaining = instances ? node.count - 1 : 0;
+			return current;
+		}
+		
+		@Override
+		public void remove() {
+			if(!canRemove) {
+				throw new IllegalStateException();
+			}
+			if(root.modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			canRemove = false;
+			BinarySearchTreeImpl<T> node = findNode(current);
+			removeNode(node, !instances);
+			//	Las instancias pendientes de current no cambian; el siguiente
+			//	nodo puede haberse movido, se busca de nuevo
+			next = inRange(descending ? highestNode(current, false) : lowestNode(current, false));
+			expectedModCount = root.modCount;
+		}
+	}
+	
+	/**
+	 * Devuelve un Stream secuencial de los elementos diferentes, en orden
+	 * ascendente.
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	/**
+	 * Devuelve un Stream paralelo de los elementos diferentes; el arbol se
+	 * reparte entre los hilos con {@link #spliterator()}.
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
+	/**
+	 * Como {@link #stream()}, repitiendo cada elemento tantas veces como
+	 * instancias tenga.
+	 */
+	public Stream<T> streamInstances() {
+		return StreamSupport.stream(spliteratorInstances(), false);
+	}
+	
+	/**
+	 * Como {@link #parallelStream()}, repitiendo cada elemento tantas veces
+	 * como instancias tenga.
+	 */
+	public Stream<T> parallelStreamInstances() {
+		return StreamSupport.stream(spliteratorInstances(), true);
+	}
+	
+	/**
+	 * Devuelve un Spliterator sobre los elementos diferentes, en inorden.
+	 * 
+	 * Cada trozo es un intervalo de posiciones [lo, hi) del recorrido inorden;
+	 * trySplit lo parte por la mitad y el primer nodo de cada trozo se
+	 * localiza con los totales de cada sub-árbol (como select), así que en
+	 * un arbol equilibrado cada division corta por la raiz de un sub-árbol y
+	 * reparte la mitad del trabajo. Después se avanza con los enlaces father.
 	 * 
-	 * @return el número de instancias de elementos del arbol 
+	 * Es ORDERED, SORTED, DISTINCT, NONNULL, SIZED y SUBSIZED (los tamaños
+	 * son exactos), y falla con ConcurrentModificationException si el arbol
+	 * se modifica mientras se recorre.
 	 */
-	public int instancesCount() {
-		if(!isEmpty()) {
-			return count + this.getLeftBST().instancesCount() + this.getRightBST().instancesCount();
-		}else {
-		return 0;
+	public Spliterator<T> spliterator() {
+		return new TreeSpliterator(0, subtreeSize, false);
+	}
+	
+	/**
+	 * Como {@link #spliterator()}, pero sobre las instancias: cada elemento se
+	 * repite count veces, así que no es DISTINCT. Los trozos pueden partir
+	 * las instancias de un mismo nodo.
+	 */
+	public Spliterator<T> spliteratorInstances() {
+		return new TreeSpliterator(0, subtreeInstances, true);
+	}
+	
+	private final class TreeSpliterator implements Spliterator<T> {
+		
+		private final boolean instances;
+		private final BinarySearchTreeImpl<T> root;
+		private final int expectedModCount;
+		private long lo;
+		private final long hi;
+		private BinarySearchTreeImpl<T> node; // nodo de la posicion lo, null si hay que buscarlo
+		private int rep; // instancias de node que quedan por devolver
+		
+		TreeSpliterator(long lo, long hi, boolean instances) {
+			this.lo = lo;
+			this.hi = hi;
+			this.instances = instances;
+			this.root = root();
+			this.expectedModCount = root.modCount;
+		}
+		
+		//	Baja hasta el nodo de la posicion lo, como select/selectInstance
+		private void locate() {
+			long k = lo;
+			BinarySearchTreeImpl<T> n = BinarySearchTreeImpl.this;
+			while(true) {
+				BinarySearchTreeImpl<T> left = n.getLeftBST();
+				long l = instances ? left.subtreeInstances : left.subtreeSize;
+				long own = instances ? n.count : 1;
+				if(k < l) {
+					n = left;
+				}else if(k < l + own) {
+					node = n;
+					rep = (int) (l + own - k);
+					return;
+				}else {
+					k -= l + own;
+					n = n.getRightBST();
+				}
+			}
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if(action == null) {
+				throw new NullPointerException();
+			}
+			if(root.modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if(lo >= hi) {
+				return false;
+			}
+			if(node == null) {
+				locate();
+			}
+			T e = node.content;
+			lo++;
+			if(--rep == 0 && lo < hi) {
+				node = successor(node);
+				rep = instances ? node.count : 1;
+			}
+			action.accept(e);
+			return true;
+		}
+		
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			while(tryAdvance(action)) {
+				//	tryAdvance ya avanza con los enlaces father
+			}
+		}
+		
+		@Override
+		public Spliterator<T> trySplit() {
+			long mid = (lo + hi) >>> 1;
+			if(mid <= lo) {
+				return null;
+			}
+			TreeSpliterator prefix = new TreeSpliterator(lo, mid, instances);
+			prefix.node = node;
+			prefix.rep = rep;
+			lo = mid;
+			node = null;
+			return prefix;
+		}
+		
+		@Override
+		public long estimateSize() {
+			return hi - lo;
+		}
+		
+		@Override
+		public int characteristics() {
+			int c = ORDERED | SORTED | NONNULL | SIZED | SUBSIZED;
+			return instances ? c : c | DISTINCT;
+		}
+		
+		@Override
+		public Comparator<? super T> getComparator() {
+			//	Orden natural
+			return null;
 		}
 	}
 	
@@ -461,28 +1706,95 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @throws NoSuchElementException si el subarbol no existe
 	 */
 	public BinarySearchTreeImpl<T> getSubtreeWithPath(String path) {
-		BinarySearchTreeImpl<T> resultado = this;
-		if(!path.equals("")) {
-			if(path != null) {
-					if(path.charAt(0) == 'R') {
-						if(getRightBST().content == null) {
-							throw new NoSuchElementException();
-						}else {
-							path = path.substring(1);
-							resultado = getRightBST().getSubtreeWithPath(path);
-						}
-					}else {
-						if(getLeftBST().content == null) {
-							throw new NoSuchElementException();
-						}else {
-							path = path.substring(1);
-							resultado = getLeftBST().getSubtreeWithPath(path);
-						}
-					}
+		return getSubtreeWithPath(path, 0);
+	}
+	
+	/**
+	 * Como {@link #getSubtreeWithPath(String)}, pero recorre el camino que
+	 * empieza en la posicion offset de path, sin copiar ni trocear la cadena.
+	 * 
+	 * @param path camino formado por L y R (cualquier otro caracter cuenta como L)
+	 * @param offset posicion del primer paso del camino dentro de path
+	 * @return el sub-arbol
+	 * @throws NoSuchElementException si el subarbol no existe
+	 * @throws IllegalArgumentException si path es null
+	 * @throws IndexOutOfBoundsException si offset no esta entre 0 y path.length()
+	 */
+	public BinarySearchTreeImpl<T> getSubtreeWithPath(CharSequence path, int offset) {
+		if(path == null) {
+			throw new IllegalArgumentException();
+		}
+		if(offset < 0 || offset > path.length()) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + path.length());
+		}
+		return walk(this, path, offset, path.length());
+	}
+	
+	/**
+	 * Baja desde node siguiendo los pasos [from, to) del camino.
+	 */
+	private static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> walk(
+			BinarySearchTreeImpl<T> node, CharSequence path, int from, int to) {
+		for(int i = from; i < to; i++) {
+			node = (path.charAt(i) == 'R') ? node.getRightBST() : node.getLeftBST();
+			if(node == null || node.content == null) {
+				throw new NoSuchElementException();
+			}
+		}
+		return node;
+	}
+	
+	/**
+	 * Devuelve los sub-árboles a los que llevan varios caminos, en el mismo
+	 * orden. Cada camino solo recorre los pasos en que se diferencia del
+	 * anterior, asi que si los caminos vienen ordenados los prefijos comunes
+	 * se recorren una sola vez.
+	 * 
+	 * Por ejemplo, con el arbol ejemplo=
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * la llamada a ejemplo.getSubtreesWithPaths(Arrays.asList("L", "LL", "LR"))
+	 * baja una sola vez a 30, y devuelve los sub-arboles de 30, 10 y 40.
+	 * 
+	 * @param paths caminos formados por L y R
+	 * @return sub-arboles, uno por camino
+	 * @throws NoSuchElementException si alguno de los subarboles no existe
+	 * @throws IllegalArgumentException si paths o alguno de los caminos es null
+	 */
+	public List<BinarySearchTreeImpl<T>> getSubtreesWithPaths(List<? extends CharSequence> paths) {
+		if(paths == null) {
+			throw new IllegalArgumentException();
+		}
+		List<BinarySearchTreeImpl<T>> result = new ArrayList<BinarySearchTreeImpl<T>>(paths.size());
+		//	Nodos del camino anterior: visitados[i] es el nodo tras i pasos
+		List<BinarySearchTreeImpl<T>> visitados = new ArrayList<BinarySearchTreeImpl<T>>();
+		visitados.add(this);
+		CharSequence anterior = "";
+		for(CharSequence path : paths) {
+			if(path == null) {
+				throw new IllegalArgumentException();
+			}
+			//	Longitud del prefijo comun con el camino anterior
+			int comun = 0;
+			int max = Math.min(anterior.length(), path.length());
+			while(comun < max && (anterior.charAt(comun) == 'R') == (path.charAt(comun) == 'R')) {
+				comun++;
 			}
+			BinarySearchTreeImpl<T> node = visitados.get(comun);
+			for(int i = comun; i < path.length(); i++) {
+				node = walk(node, path, i, i + 1);
+				if(i + 1 < visitados.size()) {
+					visitados.set(i + 1, node);
+				} else {
+					visitados.add(node);
+				}
+			}
+			result.add(node);
+			anterior = path;
 		}
-	return resultado;
-	} 
+		return result;
+	}
 	
 	/**
 	 * Devuelve el String que representa el camino formado por L's y R's desde 
@@ -511,24 +1823,103 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @throws NoSuchElementException si el elemento no existe
 	 */
 	public String getPath(T elem) {
-		if(!contains(elem)) {
-			throw new NoSuchElementException();
+		if(elem == null) {
+			throw new IllegalArgumentException();
 		}
-		StringBuffer camino = new StringBuffer();
-		if(this.content.equals(elem)) {
-			
-		}else {
-			if(elem.compareTo(this.content)>0) {
-				camino.append("R");
-				camino.append(getRightBST().getPath(elem));
+		//	Un solo descenso; el camino se va acumulando en un unico buffer
+		StringBuilder camino = new StringBuilder(height);
+		BinarySearchTreeImpl<T> node = this;
+		TreeMetricsListener l = metricsListener;
+		int comparisons = 0;
+		while(node.content != null) {
+			int cmp = elem.compareTo(node.content);
+			comparisons++;
+			if(cmp == 0) {
+				if (l != null) {
+					l.operation(TreeMetricsListener.Operation.GET_PATH, comparisons, comparisons, camino.length());
+				}
+				return camino.toString();
 			}
-			if(elem.compareTo(this.content)<0) {
-				camino.append("L");
-				camino.append(getLeftBST().getPath(elem));
+			if(cmp < 0) {
+				camino.append('L');
+				node = node.getLeftBST();
+			}else {
+				camino.append('R');
+				node = node.getRightBST();
 			}
 		}
-		return camino.toString();
-		} 
+		if (l != null) {
+			l.operation(TreeMetricsListener.Operation.GET_PATH, comparisons, comparisons, camino.length());
+		}
+		throw new NoSuchElementException();
+	}
+	
+	/**
+	 * Como {@link #getPath(Comparable)}, pero devuelve el camino codificado en
+	 * bits (profundidad y un bit por paso), sin construir ninguna cadena.
+	 * 
+	 * Por ejemplo, con el arbol ejemplo=
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * ejemplo.getEncodedPath(60).toString() devolvera "RL", y
+	 * ejemplo.getSubtreeWithPath(ejemplo.getEncodedPath(60)) el sub-arbol {60, ∅, ∅}
+	 * 
+	 * @param elem 
+	 * @return camino codificado hasta el elemento
+	 * @throws NoSuchElementException si el elemento no existe
+	 * @throws IllegalArgumentException si elem es null
+	 */
+	public TreePath getEncodedPath(T elem) {
+		if(elem == null) {
+			throw new IllegalArgumentException();
+		}
+		//	La profundidad del elemento es menor que la altura del arbol
+		long[] bits = new long[TreePath.words(height)];
+		int depth = 0;
+		BinarySearchTreeImpl<T> node = this;
+		while(node.content != null) {
+			int cmp = elem.compareTo(node.content);
+			if(cmp == 0) {
+				if(depth == 0) {
+					return TreePath.EMPTY;
+				}
+				int words = TreePath.words(depth);
+				return new TreePath(depth, (words == bits.length) ? bits : Arrays.copyOf(bits, words));
+			}
+			if(cmp < 0) {
+				node = node.getLeftBST();
+			}else {
+				bits[depth >>> 6] |= 1L << depth;
+				node = node.getRightBST();
+			}
+			depth++;
+		}
+		throw new NoSuchElementException();
+	}
+	
+	/**
+	 * Devuelve el sub-árbol al que lleva el camino codificado dado, como
+	 * {@link #getSubtreeWithPath(String)}.
+	 * 
+	 * @param path camino codificado, por ejemplo obtenido con getEncodedPath
+	 * @return el sub-arbol
+	 * @throws NoSuchElementException si el subarbol no existe
+	 * @throws IllegalArgumentException si path es null
+	 */
+	public BinarySearchTreeImpl<T> getSubtreeWithPath(TreePath path) {
+		if(path == null) {
+			throw new IllegalArgumentException();
+		}
+		BinarySearchTreeImpl<T> node = this;
+		for(int i = 0; i < path.depth(); i++) {
+			node = path.isRight(i) ? node.getRightBST() : node.getLeftBST();
+			if(node == null || node.content == null) {
+				throw new NoSuchElementException();
+			}
+		}
+		return node;
+	}
 	/**
 	 * Importante: Solamente se puede recorrer el arbol una vez
 	 * 
@@ -763,14 +2154,178 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @return un arbol exactamente igual (misma estructura y contenido) que el arbol this
 	 */
 	public BinarySearchTreeImpl<T> copy(){
-		BinarySearchTreeImpl<T> clon=null;
-	        if(this.isEmpty()){
-	        	return new BinarySearchTreeImpl<T>(null);
-	        }else{
-	            clon=this.clonarArbol(this, this.father);
-	        }
-	        return clon;
+		return copy(PARALLEL_CUTOFF);
 	    }
+	
+	/**
+	 * Copia el arbol repartiendo entre los hilos del ForkJoinPool los
+	 * sub-árboles de más de cutoff elementos; los más pequeños se copian con
+	 * {@link #clonarArbol}. El resultado es el mismo que el de la copia
+	 * secuencial, enlaces father incluidos.
+	 */
+	BinarySearchTreeImpl<T> copy(int cutoff) {
+		if(this.isEmpty()){
+			emptyNodeCreated();
+			return new BinarySearchTreeImpl<T>(this.balanced);
+		}
+		if(subtreeSize <= cutoff) {
+			return this.clonarArbol(this, this.father);
+		}
+		return new CopyTask(this, this.father, false, Math.max(1, cutoff)).invoke();
+	}
+	
+	//	Tamaño de sub-arbol por debajo del cual copy y filterTags no reparten trabajo
+	static final int PARALLEL_CUTOFF = 1 << 13;
+	
+	/**
+	 * Copia en paralelo de un sub-arbol. Cada tarea baja por el hijo mayor y
+	 * lanza una tarea para el menor, que tiene como mucho la mitad de los
+	 * nodos: el anidamiento de tareas es logaritmico aunque el arbol sea
+	 * degenerado.
+	 */
+	private final class CopyTask extends RecursiveTask<BinarySearchTreeImpl<T>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final BinarySearchTreeImpl<T> src;
+		private final BinarySearchTreeImpl<T> papa; // padre de la copia
+		private final boolean right; // si la copia es el hijo derecho de papa
+		private final int cutoff;
+		
+		CopyTask(BinarySearchTreeImpl<T> src, BinarySearchTreeImpl<T> papa, boolean right, int cutoff) {
+			this.src = src;
+			this.papa = papa;
+			this.right = right;
+			this.cutoff = cutoff;
+		}
+		
+		@Override
+		protected BinarySearchTreeImpl<T> compute() {
+			List<CopyTask> forks = new ArrayList<CopyTask>();
+			BinarySearchTreeImpl<T> result = null;
+			BinarySearchTreeImpl<T> o = src;
+			BinarySearchTreeImpl<T> p = papa;
+			boolean side = right;
+			while(true) {
+				boolean secuencial = o.subtreeSize <= cutoff;
+				BinarySearchTreeImpl<T> c = secuencial ? clonarArbol(o, p) : clonarNodo(o, p);
+				if(result == null) {
+					result = c;
+				}else if(side) {
+					p.setRightBST(c);
+				}else {
+					p.setLeftBST(c);
+				}
+				if(secuencial) {
+					break;
+				}
+				//	Se sigue por el hijo mayor (no vacio, ya que o supera cutoff)
+				boolean mayorDerecho = o.getRightBST().subtreeSize >= o.getLeftBST().subtreeSize;
+				BinarySearchTreeImpl<T> menor = mayorDerecho ? o.getLeftBST() : o.getRightBST();
+				if(menor.content == null) {
+					if(mayorDerecho) {
+						c.setLeftBST(emptySubtree());
+					}else {
+						c.setRightBST(emptySubtree());
+					}
+				}else {
+					CopyTask t = new CopyTask(menor, c, !mayorDerecho, cutoff);
+					t.fork();
+					forks.add(t);
+				}
+				o = mayorDerecho ? o.getRightBST() : o.getLeftBST();
+				p = c;
+				side = mayorDerecho;
+			}
+			for(CopyTask t : forks) {
+				BinarySearchTreeImpl<T> c = t.join();
+				if(t.right) {
+					t.papa.setRightBST(c);
+				}else {
+					t.papa.setLeftBST(c);
+				}
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Como {@link AbstractTreeADT#filterTags(String...)}, pero sin recursion
+	 * y repartiendo los sub-árboles grandes entre los hilos del ForkJoinPool.
+	 */
+	@Override
+	public void filterTags(String... keep) {
+		filterTags(PARALLEL_CUTOFF, keep);
+	}
+	
+	void filterTags(int cutoff, String... keep) {
+		if(subtreeSize <= cutoff) {
+			filterTagsSequential(this, keep);
+		}else {
+			new FilterTagsTask(this, Math.max(1, cutoff), keep).invoke();
+		}
+	}
+	
+	private static void filterTagsSequential(BinarySearchTreeImpl<?> t, String[] keep) {
+		Deque<BinarySearchTreeImpl<?>> pending = new ArrayDeque<BinarySearchTreeImpl<?>>();
+		pending.push(t);
+		while(!pending.isEmpty()) {
+			BinarySearchTreeImpl<?> n = pending.pop();
+			n.filterOwnTags(keep);
+			if(n.content == null) {
+				//	Arbol vacio: sus hijos pueden ser null
+				continue;
+			}
+			if(n.getLeftBST().content != null) {
+				pending.push(n.getLeftBST());
+			}
+			if(n.getRightBST().content != null) {
+				pending.push(n.getRightBST());
+			}
+		}
+	}
+	
+	/**
+	 * filterTags en paralelo, repartido como {@link CopyTask}.
+	 */
+	private static final class FilterTagsTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final BinarySearchTreeImpl<?> node;
+		private final int cutoff;
+		private final String[] keep;
+		
+		FilterTagsTask(BinarySearchTreeImpl<?> node, int cutoff, String[] keep) {
+			this.node = node;
+			this.cutoff = cutoff;
+			this.keep = keep;
+		}
+		
+		@Override
+		protected void compute() {
+			List<FilterTagsTask> forks = new ArrayList<FilterTagsTask>();
+			BinarySearchTreeImpl<?> n = node;
+			while(n.subtreeSize > cutoff) {
+				n.filterOwnTags(keep);
+				BinarySearchTreeImpl<?> l = n.getLeftBST();
+				BinarySearchTreeImpl<?> r = n.getRightBST();
+				BinarySearchTreeImpl<?> menor = (r.subtreeSize >= l.subtreeSize) ? l : r;
+				if(menor.content != null) {
+					FilterTagsTask t = new FilterTagsTask(menor, cutoff, keep);
+					t.fork();
+					forks.add(t);
+				}
+				n = (menor == l) ? r : l;
+			}
+			if(n.content != null) {
+				filterTagsSequential(n, keep);
+			}
+			for(FilterTagsTask t : forks) {
+				t.join();
+			}
+		}
+	}
 	 
 	public void setFather( BinarySearchTreeImpl<T> content) {
 		this.father = content;
@@ -781,7 +2336,11 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	}
 	
 	public void setCount(int n) {
+		modified();
 		this.count = n;
+		if (content != null) {
+			retrace();
+		}
 	}
 	    public BinarySearchTreeImpl<T> clonarArbol(BinarySearchTreeImpl<T>clon, BinarySearchTreeImpl<T> papa){
 	    	 
@@ -789,14 +2348,49 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	            return null;
 	        }
 
+	        BinarySearchTreeImpl<T> copia = clonarNodo(clon, papa);
+	        
+	        //	Pares (original, copia) cuyos hijos faltan por clonar
+	        Deque<BinarySearchTreeImpl<T>> originales = new ArrayDeque<BinarySearchTreeImpl<T>>();
+	        Deque<BinarySearchTreeImpl<T>> copias = new ArrayDeque<BinarySearchTreeImpl<T>>();
+	        originales.push(clon);
+	        copias.push(copia);
+	        while (!originales.isEmpty()) {
+	        	BinarySearchTreeImpl<T> o = originales.pop();
+	        	BinarySearchTreeImpl<T> c = copias.pop();
+	        	//	Los huecos siguen apuntando al arbol vacio compartido
+	        	if (o.getRightBST() != null) {
+	        		if (o.getRightBST().content == null) {
+	        			c.setRightBST(emptySubtree());
+	        		} else {
+	        			c.setRightBST(clonarNodo(o.getRightBST(), c));
+	        			originales.push(o.getRightBST());
+	        			copias.push(c.getRightBST());
+	        		}
+	        	}
+	        	if (o.getLeftBST() != null) {
+	        		if (o.getLeftBST().content == null) {
+	        			c.setLeftBST(emptySubtree());
+	        		} else {
+	        			c.setLeftBST(clonarNodo(o.getLeftBST(), c));
+	        			originales.push(o.getLeftBST());
+	        			copias.push(c.getLeftBST());
+	        		}
+	        	}
+	        }
+	        
+	        return copia;
+	    }
+	    
+	    private BinarySearchTreeImpl<T> clonarNodo(BinarySearchTreeImpl<T> clon, BinarySearchTreeImpl<T> papa) {
 	        BinarySearchTreeImpl<T> copia = new BinarySearchTreeImpl<T>();
 	        copia.setContent(clon.content);
 	        copia.setFather(papa);
-	        copia.setCount(clon.count);
-	        
-	        copia.setRightBST(clonarArbol(clon.getRightBST(),copia));
-	        copia.setLeftBST(clonarArbol(clon.getLeftBST(),copia));
-	        
+	        copia.count = clon.count;
+	        copia.height = clon.height;
+	        copia.balanced = clon.balanced;
+	        copia.subtreeSize = clon.subtreeSize;
+	        copia.subtreeInstances = clon.subtreeInstances;
 	        return copia;
 	    }
 	
@@ -805,19 +2399,159 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * Devuelve el número de elementos que pudo eliminar del árbol
 	 *  (no podrá eliminar los elemenots 'null' o que no los contiene el arbol)
 	 * 
+	 * Con lotes pequeños se busca cada elemento con un solo descenso; con
+	 * lotes grandes (m elementos, m * altura >= size()) se ordena el lote y se
+	 * mezcla con un recorrido inorden del arbol, localizando todos los nodos
+	 * en una sola pasada. En ambos casos los nodos se eliminan en el mismo
+	 * orden en que lo haria una eliminacion elemento a elemento.
+	 * 
 	 * return numero de elementos eliminados del arbol
 	 */
 	public int  remove(T... elements) {
+		int m = 0;
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] != null) {
+				m++;
+			}
+		}
+		if (m == 0 || isEmpty()) {
+			return 0;
+		}
+		modified();
+		if ((long) m * height < subtreeSize) {
+			int contador = 0;
+			for (int i = 0; i < elements.length; i++) {
+				if (elements[i] != null) {
+					BinarySearchTreeImpl<T> node = findNode(elements[i]);
+					if (node != null) {
+						removeOne(node);
+						contador++;
+					}
+				}
+			}
+			return contador;
+		}
+		return removeBatch(elements, m);
+	}
+	
+	/**
+	 * Quita una instancia del elemento de node; devuelve los nodos
+	 * recorridos para ello.
+	 */
+	private int removeOne(BinarySearchTreeImpl<T> node) {
+		if(node.count == 1) {
+			return node.deleteNode();
+		}else {
+			node.count = node.count - 1;
+			return node.retrace();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private int removeBatch(T[] elements, int m) {
+		//	Elementos distintos del lote, ordenados
+		Object[] keys = new Object[m];
+		int k = 0;
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] != null) {
+				keys[k++] = elements[i];
+			}
+		}
+		Arrays.sort(keys);
+		k = 0;
+		for (int i = 0; i < m; i++) {
+			if (k == 0 || ((T) keys[k - 1]).compareTo((T) keys[i]) != 0) {
+				keys[k++] = keys[i];
+			}
+		}
+		
+		//	Mezcla con el recorrido inorden: nodo e instancias de cada uno
+		Object[] nodes = new Object[k];
+		int[] instances = new int[k];
+		Deque<BinarySearchTreeImpl<T>> pending = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		BinarySearchTreeImpl<T> node = this;
+		int d = 0;
+		while (d < k && (node.content != null || ! pending.isEmpty())) {
+			if (node.content != null) {
+				pending.push(node);
+				node = node.getLeftBST();
+			} else {
+				node = pending.pop();
+				int cmp;
+				while (d < k && (cmp = ((T) keys[d]).compareTo(node.content)) <= 0) {
+					if (cmp == 0) {
+						nodes[d] = node;
+						instances[d] = node.count;
+					}
+					d++;
+				}
+				node = node.getRightBST();
+			}
+		}
+		
+		//	Aplica las eliminaciones en el orden del lote; los nodos que se
+		//	quedan sin instancias se borran en ese momento, como haria remove(T)
+		int[] removed = new int[k];
 		int contador = 0;
-		int max = elements.length;
-		for(int i=0; i<max; i++) {
-			if(elements[i] != null && contains(elements[i])) {
-				remove(elements[i]);
-				contador++;
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] == null) {
+				continue;
+			}
+			d = Arrays.binarySearch(keys, 0, k, elements[i]);
+			if (nodes[d] == null || removed[d] == instances[d]) {
+				continue;
+			}
+			removed[d]++;
+			contador++;
+			if (removed[d] == instances[d]) {
+				locate(nodes, d, elements[i]).deleteNode();
+				nodes[d] = null;
+			}
+		}
+		for (d = 0; d < k; d++) {
+			if (nodes[d] != null && removed[d] > 0) {
+				locate(nodes, d, (T) keys[d]).count -= removed[d];
+			}
+		}
+		
+		//	Recalcula los totales una sola vez, de abajo arriba
+		List<BinarySearchTreeImpl<T>> preorder = new ArrayList<BinarySearchTreeImpl<T>>(subtreeSize);
+		pending.clear();
+		if (content != null) {
+			pending.push(this);
+		}
+		while (! pending.isEmpty()) {
+			node = pending.pop();
+			preorder.add(node);
+			if (node.getRightBST().content != null) {
+				pending.push(node.getRightBST());
 			}
+			if (node.getLeftBST().content != null) {
+				pending.push(node.getLeftBST());
+			}
+		}
+		for (int i = preorder.size() - 1; i >= 0; i--) {
+			preorder.get(i).update();
+		}
+		if (father != null) {
+			father.retrace();
 		}
 		return contador;
 	}
+	
+	/**
+	 * Devuelve el nodo guardado para el elemento, o lo vuelve a buscar si
+	 * un borrado o una rotacion anterior lo ha movido a otro nodo.
+	 */
+	@SuppressWarnings("unchecked")
+	private BinarySearchTreeImpl<T> locate(Object[] nodes, int d, T element) {
+		BinarySearchTreeImpl<T> node = (BinarySearchTreeImpl<T>) nodes[d];
+		if (node.content == null || element.compareTo(node.content) != 0) {
+			node = findNode(element);
+			nodes[d] = node;
+		}
+		return node;
+	}
 	/**
 	 * Elimina un elemento del arbol. Si el atributo count del nodo que contiene el elemento es >1, simplemente se decrementará este valor en una unidad
 	 * 
@@ -835,59 +2569,79 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		 if(element == null) {
 				throw new IllegalArgumentException();
 		}
-		 if(!contains(element)) {
-				throw new NoSuchElementException();
-		 }	
-		if(element.compareTo(content) != 0 ) {
-			if(element.compareTo(content) < 0) {
-				getLeftBST().remove(element);
-			}else if(element.compareTo(content) > 0) {
-				getRightBST().remove(element);
-			}	
-		}else{
-			if(count == 1) {
-				if(isLeaf()) {
-					this.content = null;
-					this.count = 0;
-					setLeftBST(null);
-					setRightBST(null);
-
-				}else if(getLeftBST().content == null || getRightBST().content == null) {
-					if(getRightBST().content == null) {
-						content = getLeftBST().content;
-						count = getLeftBST().count;
-						this.rightSubtree = getLeftBST().getRightBST();
-						this.leftSubtree = getLeftBST().getLeftBST();
-						getLeftBST().father = this;
-						getRightBST().father = this;
-
-					}else {
-						content = getRightBST().content;
-						count = getRightBST().count;
-						this.leftSubtree = getRightBST().getLeftBST();
-						this.rightSubtree = getRightBST().getRightBST();
-						getLeftBST().father = this;
-						getRightBST().father = this;
-					}
-						
-				}else {
-					BinarySearchTreeImpl<T> aux = this;
+		TreeMetricsListener l = metricsListener;
+		int[] descent = (l == null) ? null : new int[2];
+		BinarySearchTreeImpl<T> node = (l == null) ? findNode(element) : findNode(element, descent);
+		if(node == null) {
+			if (l != null) {
+				report(l, TreeMetricsListener.Operation.REMOVE, descent, 0);
+			}
+			throw new NoSuchElementException();
+		}
+		modified();
+		int visited = removeOne(node);
+		if (l != null) {
+			report(l, TreeMetricsListener.Operation.REMOVE, descent, visited);
+		}
+	}
 
-					aux = aux.getRightBST();
-						
-					while(aux.getLeftBST().content != null) {
-						aux = aux.getLeftBST();
-					}
-					T nodo = aux.content;
-					int numero = aux.count;
-					removeAll(nodo);
-						
-					this.content = nodo;
-					this.count = numero;
+	/**
+	 * Elimina el nodo raiz de este sub-arbol, con todas sus instancias.
+	 *
+	 * Si tiene dos hijos, se sustituye por el menor de sus mayores y se
+	 * elimina el nodo de este. El elemento se mueve con su count y sus
+	 * etiquetas. Despues se recalculan alturas (y se reequilibra) hacia la raiz.
+	 * 
+	 * @return nodos recorridos, buscando el sucesor y hacia la raiz
+	 */
+	private int deleteNode() {
+		if(isLeaf()) {
+			BinarySearchTreeImpl<T> f = father;
+			if (f == null) {
+				this.tags = null;
+				detach();
+				emptyNodeCreated();
+				return 0;
+			} else {
+				//	El hueco del padre pasa a ser el arbol vacio compartido
+				if (f.leftSubtree == this) {
+					f.setLeftBST(emptySubtree());
+				} else {
+					f.setRightBST(emptySubtree());
 				}
+				detach();
+				return f.retrace();
+			}
+
+		}else if(getLeftBST().content == null || getRightBST().content == null) {
+			BinarySearchTreeImpl<T> child;
+			if(getRightBST().content == null) {
+				child = getLeftBST();
 			}else {
-				count = count - 1;
+				child = getRightBST();
+			}
+			content = child.content;
+			count = child.count;
+			tags = child.tags;
+			this.leftSubtree = child.getLeftBST();
+			this.rightSubtree = child.getRightBST();
+			adopt(getLeftBST());
+			adopt(getRightBST());
+			child.detach();
+			return retrace();
+
+		}else {
+			BinarySearchTreeImpl<T> aux = getRightBST();
+			int visited = 1;
+
+			while(aux.getLeftBST().content != null) {
+				aux = aux.getLeftBST();
+				visited++;
 			}
+			this.content = aux.content;
+			this.count = aux.count;
+			this.tags = aux.tags;
+			return visited + aux.deleteNode();
 		}
 	}
 	
@@ -906,21 +2660,25 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		if(element == null) {
 			throw new IllegalArgumentException();
 		}
-		if(!contains(element)) {
+		TreeMetricsListener l = metricsListener;
+		int[] descent = (l == null) ? null : new int[2];
+		BinarySearchTreeImpl<T> node = (l == null) ? findNode(element) : findNode(element, descent);
+		if(node == null) {
+			if (l != null) {
+				report(l, TreeMetricsListener.Operation.REMOVE, descent, 0);
+			}
 			throw new NoSuchElementException();
 		}
-		if(element.compareTo(content)>0) {
-			getRightBST().remove(element,num);
-		}
-		if(element.compareTo(content)<0) {
-			getLeftBST().remove(element,num);
-		}
-		if(num >= count) {
-			while(contains(element)) {
-				remove(element);
-			}
+		modified();
+		int visited;
+		if(num >= node.count) {
+			visited = node.deleteNode();
 		}else {
-			count = count - num;
+			node.count = node.count - num;
+			visited = node.retrace();
+		}
+		if (l != null) {
+			report(l, TreeMetricsListener.Operation.REMOVE, descent, visited);
 		}
 	}
 	
@@ -941,13 +2699,21 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		if(element == null) {
 			throw new IllegalArgumentException();
 		}
-		if(!contains(element)) {
+		TreeMetricsListener l = metricsListener;
+		int[] descent = (l == null) ? null : new int[2];
+		BinarySearchTreeImpl<T> node = (l == null) ? findNode(element) : findNode(element, descent);
+		if(node == null) {
+			if (l != null) {
+				report(l, TreeMetricsListener.Operation.REMOVE_ALL, descent, 0);
+			}
 			throw new NoSuchElementException();
 		}
-		int contador = 0;
-		while(contains(element)) {
-			remove(element);
-			contador++;
+		modified();
+		//	Se elimina el nodo de una vez, tenga las instancias que tenga
+		int contador = node.count;
+		int visited = node.deleteNode();
+		if (l != null) {
+			report(l, TreeMetricsListener.Operation.REMOVE_ALL, descent, visited);
 		}
 		return contador;
 	}
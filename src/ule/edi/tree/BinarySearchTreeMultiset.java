@@ -0,0 +1,151 @@
+package ule.edi.tree;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.Objects;
+
+/**
+ * Vista de un {@link BinarySearchTreeImpl} como multiconjunto ordenado: cada
+ * elemento aparece tantas veces como instancias tiene en el arbol (su count).
+ *
+ * El iterador recorre las instancias en orden ascendente y su remove()
+ * elimina una sola instancia. {@link #elementSet()} devuelve la vista
+ * {@link NavigableSet} de los elementos diferentes sobre el mismo arbol.
+ *
+ * Como en java.util, los elementos null provocan NullPointerException.
+ *
+ * @param <T> tipo de los elementos, con orden natural.
+ */
+public class BinarySearchTreeMultiset<T extends Comparable<? super T>> extends AbstractCollection<T> {
+
+	private final BinarySearchTreeImpl<T> tree;
+
+	BinarySearchTreeMultiset(BinarySearchTreeImpl<T> tree) {
+		this.tree = tree;
+	}
+
+	@SuppressWarnings("unchecked")
+	private BinarySearchTreeImpl<T> find(Object o) {
+		return tree.findNode((T) Objects.requireNonNull(o));
+	}
+
+	/**
+	 * Devuelve el número de instancias del elemento, 0 si no está.
+	 *
+	 * @param o elemento a buscar
+	 * @return instancias del elemento en el arbol
+	 */
+	public int count(Object o) {
+		BinarySearchTreeImpl<T> node = find(o);
+		return (node == null) ? 0 : node.count;
+	}
+
+	/**
+	 * Añade occurrences instancias del elemento.
+	 *
+	 * @param e elemento a añadir
+	 * @param occurrences número de instancias, 0 o más
+	 * @return instancias que tenía antes
+	 * @throws IllegalArgumentException si occurrences es negativo
+	 */
+	public int add(T e, int occurrences) {
+		if (occurrences < 0) {
+			throw new IllegalArgumentException("occurrences=" + occurrences);
+		}
+		BinarySearchTreeImpl<T> node = find(e);
+		int before = (node == null) ? 0 : node.count;
+		if (occurrences == 0) {
+			return before;
+		}
+		if (node == null) {
+			tree.insert(e);
+			node = tree.findNode(e);
+			if (occurrences > 1) {
+				node.setCount(occurrences);
+			}
+		} else {
+			node.setCount(before + occurrences);
+		}
+		return before;
+	}
+
+	/**
+	 * Elimina hasta occurrences instancias del elemento; si no quedan, se
+	 * elimina el nodo.
+	 *
+	 * @param o elemento a eliminar
+	 * @param occurrences número de instancias, 0 o más
+	 * @return instancias que tenía antes
+	 * @throws IllegalArgumentException si occurrences es negativo
+	 */
+	public int remove(Object o, int occurrences) {
+		if (occurrences < 0) {
+			throw new IllegalArgumentException("occurrences=" + occurrences);
+		}
+		BinarySearchTreeImpl<T> node = find(o);
+		if (node == null) {
+			return 0;
+		}
+		int before = node.count;
+		if (occurrences > 0) {
+			tree.remove(node.content, occurrences);
+		}
+		return before;
+	}
+
+	/**
+	 * Devuelve la vista de los elementos diferentes.
+	 */
+	public NavigableSet<T> elementSet() {
+		return new BinarySearchTreeSet<T>(tree);
+	}
+
+	@Override
+	public int size() {
+		return tree.instancesCount();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return tree.isEmpty();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return find(o) != null;
+	}
+
+	/**
+	 * Añade una instancia del elemento.
+	 */
+	@Override
+	public boolean add(T e) {
+		Objects.requireNonNull(e);
+		tree.insert(e);
+		return true;
+	}
+
+	/**
+	 * Elimina una instancia del elemento.
+	 */
+	@Override
+	public boolean remove(Object o) {
+		BinarySearchTreeImpl<T> node = find(o);
+		if (node == null) {
+			return false;
+		}
+		tree.removeNode(node, false);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		elementSet().clear();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return tree.rangeIterator(null, false, null, false, true, false);
+	}
+}
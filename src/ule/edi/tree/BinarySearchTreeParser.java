@@ -0,0 +1,268 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Lee un {@link BinarySearchTreeImpl} desde el formato de su toString(),
+ * por ejemplo
+ * <pre>
+ *   {10(2), {5 [(color, rojo)], ∅, ∅}, {20, ∅, ∅}}
+ * </pre>
+ * y reconstruye la forma exacta del arbol, el count de cada elemento (el
+ * "(n)" tras el elemento), sus etiquetas y las referencias father.
+ *
+ * Se lee en una sola pasada desde un {@link Reader}, con un buffer fijo y
+ * una pila explícita en lugar de recursión, así que sirve para volcados de
+ * varios GB y para arboles degenerados tan profundos como largos: solo se
+ * guardan en memoria el arbol que se construye y la pila de nodos abiertos.
+ *
+ * El formato no escapa nada, así que se toma como fin de un elemento la
+ * primera ", {" o ", ∅" (o " [(" si tiene etiquetas), como fin de una clave
+ * la primera ", " y como fin de un valor el primer ")" seguido de ", (" o
+ * de "]". Un elemento cuyo texto termine en "(n)", con n un número, se
+ * leería como si tuviera count n. No se comprueba que los elementos estén
+ * ordenados: se confia en que el volcado salió de un BinarySearchTreeImpl.
+ */
+public final class BinarySearchTreeParser {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final char EMPTY = AbstractTreeADT.EMPTY_TREE_MARK.charAt(0);
+
+	private final Reader in;
+	private final char[] buf = new char[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	//	Caracteres ya descartados del buffer, para los mensajes de error
+	private long offset;
+
+	private BinarySearchTreeParser(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * Lee un arbol no equilibrado; las etiquetas quedan como String.
+	 *
+	 * @see #parse(Reader, Function, Function, boolean)
+	 */
+	public static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> parse(Reader in,
+			Function<String, T> elements) throws IOException {
+		return parse(in, elements, Function.identity(), false);
+	}
+
+	/**
+	 * Lee un arbol desde in hasta el final de la entrada.
+	 *
+	 * @param in entrada; no se cierra.
+	 * @param elements convierte el texto de cada elemento en el elemento.
+	 * @param tagValues convierte el texto del valor de cada etiqueta.
+	 * @param balanced si el arbol resultante se mantiene equilibrado; solo
+	 *        tiene sentido si el volcado era de un arbol AVL.
+	 * @return el arbol leido.
+	 * @throws IOException si falla la lectura o la entrada no tiene el
+	 *         formato de toString(); el mensaje indica el carácter.
+	 * @throws IllegalArgumentException si algún parámetro es null
+	 */
+	public static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> parse(Reader in,
+			Function<String, T> elements, Function<String, ?> tagValues, boolean balanced) throws IOException {
+		if (in == null || elements == null || tagValues == null) {
+			throw new IllegalArgumentException();
+		}
+		return new BinarySearchTreeParser(in).tree(elements, tagValues, balanced);
+	}
+
+	private <T extends Comparable<? super T>> BinarySearchTreeImpl<T> tree(Function<String, T> elements,
+			Function<String, ?> tagValues, boolean balanced) throws IOException {
+		BinarySearchTreeImpl<T> root = new BinarySearchTreeImpl<T>(balanced);
+		//	Nodos cuya "}" falta por leer, y si ya se leyó su hijo izquierdo
+		Deque<BinarySearchTreeImpl<T>> open = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		Deque<Boolean> onRight = new ArrayDeque<Boolean>();
+		StringBuilder text = new StringBuilder();
+
+		while (true) {
+			//	Se espera un sub-arbol
+			if (!fill(1)) {
+				throw error("unexpected end of input");
+			}
+			char c = buf[pos++];
+			if (c == '{') {
+				text.setLength(0);
+				readElement(text);
+				int count = stripCount(text);
+				T element = elements.apply(text.toString());
+				Map<String, Object> tags = readTags(text, tagValues);
+				BinarySearchTreeImpl<T> node;
+				if (open.isEmpty()) {
+					node = root;
+					node.restore(element, count, tags);
+				} else {
+					node = open.peek().restoreChild(onRight.peek(), element, count, tags);
+				}
+				open.push(node);
+				onRight.push(Boolean.FALSE);
+				expect(", ");
+				continue;
+			}
+			if (c != EMPTY) {
+				throw error("expected '{' or '" + EMPTY + "'");
+			}
+
+			//	Sub-arbol terminado: se cierran los nodos que ya tienen sus dos hijos
+			while (!open.isEmpty() && onRight.peek()) {
+				expect("}");
+				open.pop().restoreTotals();
+				onRight.pop();
+			}
+			if (open.isEmpty()) {
+				break;
+			}
+			onRight.pop();
+			onRight.push(Boolean.TRUE);
+			expect(", ");
+		}
+
+		//	Solo puede quedar espacio en blanco (el salto de línea del volcado)
+		while (fill(1)) {
+			if (!Character.isWhitespace(buf[pos])) {
+				throw error("unexpected text after the tree");
+			}
+			pos++;
+		}
+		return root;
+	}
+
+	/**
+	 * Asegura que hay al menos n caracteres sin leer en el buffer; devuelve
+	 * false si la entrada acaba antes.
+	 */
+	private boolean fill(int n) throws IOException {
+		if (limit - pos >= n) {
+			return true;
+		}
+		System.arraycopy(buf, pos, buf, 0, limit - pos);
+		offset += pos;
+		limit -= pos;
+		pos = 0;
+		while (limit < n) {
+			int r = in.read(buf, limit, buf.length - limit);
+			if (r < 0) {
+				return false;
+			}
+			limit += r;
+		}
+		return true;
+	}
+
+	private boolean lookingAt(String s) throws IOException {
+		if (!fill(s.length())) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (buf[pos + i] != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void expect(String s) throws IOException {
+		if (!lookingAt(s)) {
+			throw error("expected \"" + s + "\"");
+		}
+		pos += s.length();
+	}
+
+	private IOException error(String message) {
+		return new IOException("malformed tree at character " + (offset + pos) + ": " + message);
+	}
+
+	/**
+	 * Lee el texto del elemento, hasta ", {", ", ∅" o " [(" (sin incluirlos).
+	 */
+	private void readElement(StringBuilder text) throws IOException {
+		while (true) {
+			if (!fill(1)) {
+				throw error("unexpected end of input");
+			}
+			char c = buf[pos];
+			if (c == ',' && fill(3) && buf[pos + 1] == ' ' && (buf[pos + 2] == '{' || buf[pos + 2] == EMPTY)) {
+				return;
+			}
+			if (c == ' ' && lookingAt(" [(")) {
+				return;
+			}
+			text.append(c);
+			pos++;
+		}
+	}
+
+	/**
+	 * Quita del final del texto el "(n)" del count, si lo tiene, y lo devuelve.
+	 */
+	private static int stripCount(StringBuilder text) {
+		int end = text.length() - 1;
+		if (end < 0 || text.charAt(end) != ')') {
+			return 1;
+		}
+		int open = text.lastIndexOf("(");
+		if (open < 0 || open + 1 == end || end - open > 11) {
+			return 1;
+		}
+		long n = 0;
+		for (int i = open + 1; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return 1;
+			}
+			n = 10 * n + (c - '0');
+		}
+		if (n < 2 || n > Integer.MAX_VALUE) {
+			//	toString() solo escribe counts mayores que 1
+			return 1;
+		}
+		text.setLength(open);
+		return (int) n;
+	}
+
+	/**
+	 * Lee " [(clave, valor), ...]" si está; devuelve null si no hay etiquetas.
+	 */
+	private Map<String, Object> readTags(StringBuilder text, Function<String, ?> tagValues) throws IOException {
+		if (!lookingAt(" [(")) {
+			return null;
+		}
+		pos += 2;
+		Map<String, Object> tags = new HashMap<String, Object>();
+		while (true) {
+			expect("(");
+			text.setLength(0);
+			while (!lookingAt(", ")) {
+				if (!fill(1)) {
+					throw error("unexpected end of input");
+				}
+				text.append(buf[pos++]);
+			}
+			pos += 2;
+			String key = text.toString();
+			text.setLength(0);
+			while (!lookingAt("), (") && !lookingAt(")]")) {
+				if (!fill(1)) {
+					throw error("unexpected end of input");
+				}
+				text.append(buf[pos++]);
+			}
+			tags.put(key, tagValues.apply(text.toString()));
+			if (lookingAt(")]")) {
+				pos += 2;
+				return tags;
+			}
+			pos += 3;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package ule.edi.tree;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SortedSet;
+
+/**
+ * Vista de un {@link BinarySearchTreeImpl} como {@link NavigableSet}, sin
+ * copiar sus elementos.
+ *
+ * El conjunto contiene los elementos diferentes del arbol (las instancias
+ * se ven con {@link BinarySearchTreeMultiset}). Los cambios en la vista se
+ * hacen en el arbol y al reves; los iteradores fallan con
+ * ConcurrentModificationException si el arbol se modifica por otra via.
+ *
+ * floor, ceiling, lower, higher, first, last, pollFirst y pollLast bajan una
+ * sola vez desde la raiz, O(h); los iteradores avanzan al sucesor con los
+ * enlaces father. size() se calcula con los totales de cada sub-arbol.
+ *
+ * Como en java.util, los elementos null provocan NullPointerException.
+ *
+ * @param <T> tipo de los elementos, con orden natural.
+ */
+public class BinarySearchTreeSet<T extends Comparable<? super T>> extends AbstractSet<T>
+		implements NavigableSet<T> {
+
+	private final BinarySearchTreeImpl<T> tree;
+
+	//	Extremos del rango en orden ascendente, null si no hay extremo
+	private final T lo;
+	private final boolean loInclusive;
+	private final T hi;
+	private final boolean hiInclusive;
+
+	//	Si es cierto, la vista recorre el rango en orden descendente
+	private final boolean descending;
+
+	BinarySearchTreeSet(BinarySearchTreeImpl<T> tree) {
+		this(tree, null, false, null, false, false);
+	}
+
+	private BinarySearchTreeSet(BinarySearchTreeImpl<T> tree, T lo, boolean loInclusive,
+			T hi, boolean hiInclusive, boolean descending) {
+		this.tree = tree;
+		this.lo = lo;
+		this.loInclusive = loInclusive;
+		this.hi = hi;
+		this.hiInclusive = hiInclusive;
+		this.descending = descending;
+	}
+
+	//	Comprobaciones de rango
+
+	private boolean tooLow(T e) {
+		if (lo == null) {
+			return false;
+		}
+		int cmp = e.compareTo(lo);
+		return cmp < 0 || (cmp == 0 && !loInclusive);
+	}
+
+	private boolean tooHigh(T e) {
+		if (hi == null) {
+			return false;
+		}
+		int cmp = e.compareTo(hi);
+		return cmp > 0 || (cmp == 0 && !hiInclusive);
+	}
+
+	private boolean inRange(T e) {
+		return !tooLow(e) && !tooHigh(e);
+	}
+
+	//	Como inRange, pero si !inclusive vale el extremo aunque sea abierto
+	private boolean inRange(T e, boolean inclusive) {
+		if (inclusive) {
+			return inRange(e);
+		}
+		return (lo == null || e.compareTo(lo) >= 0) && (hi == null || e.compareTo(hi) <= 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T element(Object o) {
+		return (T) Objects.requireNonNull(o);
+	}
+
+	private static <T extends Comparable<? super T>> T content(BinarySearchTreeImpl<T> node) {
+		return (node == null) ? null : node.content;
+	}
+
+	//	Operaciones en orden ascendente, sin tener en cuenta descending
+
+	private BinarySearchTreeImpl<T> lowest() {
+		BinarySearchTreeImpl<T> node = tree.lowestNode(lo, loInclusive);
+		return (node == null || tooHigh(node.content)) ? null : node;
+	}
+
+	private BinarySearchTreeImpl<T> highest() {
+		BinarySearchTreeImpl<T> node = tree.highestNode(hi, hiInclusive);
+		return (node == null || tooLow(node.content)) ? null : node;
+	}
+
+	private T absCeiling(T e, boolean inclusive) {
+		if (tooLow(e)) {
+			return content(lowest());
+		}
+		BinarySearchTreeImpl<T> node = tree.lowestNode(e, inclusive);
+		return (node == null || tooHigh(node.content)) ? null : node.content;
+	}
+
+	private T absFloor(T e, boolean inclusive) {
+		if (tooHigh(e)) {
+			return content(highest());
+		}
+		BinarySearchTreeImpl<T> node = tree.highestNode(e, inclusive);
+		return (node == null || tooLow(node.content)) ? null : node.content;
+	}
+
+	private T poll(BinarySearchTreeImpl<T> node) {
+		if (node == null) {
+			return null;
+		}
+		T e = node.content;
+		tree.removeNode(node, true);
+		return e;
+	}
+
+	private BinarySearchTreeSet<T> sub(T fromKey, boolean fromInclusive, T toKey, boolean toInclusive) {
+		if (fromKey != null && toKey != null && fromKey.compareTo(toKey) > 0) {
+			throw new IllegalArgumentException("fromKey > toKey");
+		}
+		if (fromKey != null && !inRange(fromKey, fromInclusive)) {
+			throw new IllegalArgumentException("fromKey out of range");
+		}
+		if (toKey != null && !inRange(toKey, toInclusive)) {
+			throw new IllegalArgumentException("toKey out of range");
+		}
+		return new BinarySearchTreeSet<T>(tree,
+				(fromKey == null) ? lo : fromKey, (fromKey == null) ? loInclusive : fromInclusive,
+				(toKey == null) ? hi : toKey, (toKey == null) ? hiInclusive : toInclusive,
+				descending);
+	}
+
+	//	Set
+
+	@Override
+	public int size() {
+		if (lo == null && hi == null) {
+			return tree.size();
+		}
+		long up = (hi == null) ? tree.size() : tree.below(hi, hiInclusive, false);
+		long down = (lo == null) ? 0 : tree.below(lo, !loInclusive, false);
+		return (int) Math.max(0, up - down);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return lowest() == null;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		T e = element(o);
+		return inRange(e) && tree.findNode(e) != null;
+	}
+
+	/**
+	 * Inserta el elemento si no estaba; si ya estaba no cambia su número de
+	 * instancias.
+	 *
+	 * @throws IllegalArgumentException si el elemento queda fuera del rango de la vista
+	 */
+	@Override
+	public boolean add(T e) {
+		Objects.requireNonNull(e);
+		if (!inRange(e)) {
+			throw new IllegalArgumentException("key out of range");
+		}
+		if (tree.findNode(e) != null) {
+			return false;
+		}
+		return tree.insert(e);
+	}
+
+	/**
+	 * Elimina el elemento con todas sus instancias.
+	 */
+	@Override
+	public boolean remove(Object o) {
+		T e = element(o);
+		if (!inRange(e)) {
+			return false;
+		}
+		BinarySearchTreeImpl<T> node = tree.findNode(e);
+		if (node == null) {
+			return false;
+		}
+		tree.removeNode(node, true);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		while (poll(lowest()) != null) {
+			//	pollFirst en orden ascendente hasta vaciar el rango
+		}
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return tree.rangeIterator(lo, loInclusive, hi, hiInclusive, false, descending);
+	}
+
+	@Override
+	public Iterator<T> descendingIterator() {
+		return tree.rangeIterator(lo, loInclusive, hi, hiInclusive, false, !descending);
+	}
+
+	//	SortedSet / NavigableSet
+
+	@Override
+	public Comparator<? super T> comparator() {
+		return descending ? Collections.reverseOrder() : null;
+	}
+
+	@Override
+	public T first() {
+		T e = content(descending ? highest() : lowest());
+		if (e == null) {
+			throw new NoSuchElementException();
+		}
+		return e;
+	}
+
+	@Override
+	public T last() {
+		T e = content(descending ? lowest() : highest());
+		if (e == null) {
+			throw new NoSuchElementException();
+		}
+		return e;
+	}
+
+	@Override
+	public T lower(T e) {
+		Objects.requireNonNull(e);
+		return descending ? absCeiling(e, false) : absFloor(e, false);
+	}
+
+	@Override
+	public T floor(T e) {
+		Objects.requireNonNull(e);
+		return descending ? absCeiling(e, true) : absFloor(e, true);
+	}
+
+	@Override
+	public T ceiling(T e) {
+		Objects.requireNonNull(e);
+		return descending ? absFloor(e, true) : absCeiling(e, true);
+	}
+
+	@Override
+	public T higher(T e) {
+		Objects.requireNonNull(e);
+		return descending ? absFloor(e, false) : absCeiling(e, false);
+	}
+
+	@Override
+	public T pollFirst() {
+		return poll(descending ? highest() : lowest());
+	}
+
+	@Override
+	public T pollLast() {
+		return poll(descending ? lowest() : highest());
+	}
+
+	@Override
+	public NavigableSet<T> descendingSet() {
+		return new BinarySearchTreeSet<T>(tree, lo, loInclusive, hi, hiInclusive, !descending);
+	}
+
+	@Override
+	public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+		Objects.requireNonNull(fromElement);
+		Objects.requireNonNull(toElement);
+		return descending ? sub(toElement, toInclusive, fromElement, fromInclusive)
+				: sub(fromElement, fromInclusive, toElement, toInclusive);
+	}
+
+	@Override
+	public NavigableSet<T> headSet(T toElement, boolean inclusive) {
+		Objects.requireNonNull(toElement);
+		return descending ? sub(toElement, inclusive, null, false) : sub(null, false, toElement, inclusive);
+	}
+
+	@Override
+	public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
+		Objects.requireNonNull(fromElement);
+		return descending ? sub(null, false, fromElement, inclusive) : sub(fromElement, inclusive, null, false);
+	}
+
+	@Override
+	public SortedSet<T> subSet(T fromElement, T toElement) {
+		return subSet(fromElement, true, toElement, false);
+	}
+
+	@Override
+	public SortedSet<T> headSet(T toElement) {
+		return headSet(toElement, false);
+	}
+
+	@Override
+	public SortedSet<T> tailSet(T fromElement) {
+		return tailSet(fromElement, true);
+	}
+}
@@ -0,0 +1,427 @@
+package ule.edi.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Instantanea binaria, versionada, de un {@link BinarySearchTreeImpl}: guarda
+ * la forma exacta del arbol, el count de cada elemento y sus etiquetas, con
+ * los elementos y los valores de las etiquetas codificados por
+ * {@link ElementCodec}s.
+ *
+ * El fichero se lee mapeado en memoria ({@link FileChannel#map}): abrirlo
+ * solo lee la cabecera, y contains/count bajan por los nodos directamente
+ * sobre el fichero mapeado, así que un servicio que se reinicia puede
+ * responder en cuanto abre la instantanea, sin reconstruir el arbol; el
+ * sistema operativo carga las páginas a medida que se usan.
+ * {@link #toTree()} reconstruye el arbol en memoria cuando hace falta
+ * modificarlo.
+ *
+ * Formato (big-endian): una cabecera de {@link #HEADER_SIZE} bytes
+ * <pre>
+ *   int magic "BSTS", int version, int flags (bit 0: equilibrado),
+ *   int size, long instancesCount, long posición de la raiz (-1 si vacío)
+ * </pre>
+ * y después un registro por nodo, en postorden:
+ * <pre>
+ *   long posición del hijo izquierdo (-1 si vacío), long del derecho,
+ *   int count, int número de etiquetas, elemento,
+ *   y por cada etiqueta: clave (como {@link ElementCodec#STRING}) y valor
+ * </pre>
+ * Ningún registro cruza un límite de {@link #SEGMENT_SIZE} bytes (se rellena
+ * hasta el siguiente), así cada uno se lee de un solo segmento mapeado.
+ *
+ * Las lecturas de una instantanea abierta se pueden hacer desde varios
+ * hilos a la vez.
+ *
+ * @param <T> tipo de los elementos, comparable.
+ */
+public final class BinarySearchTreeSnapshot<T extends Comparable<? super T>> implements AutoCloseable {
+
+	public static final int MAGIC = 0x42535453;
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 32;
+
+	/**
+	 * Tamaño de cada segmento mapeado (1 GiB).
+	 */
+	public static final int SEGMENT_SIZE = 1 << 30;
+
+	private static final int SEGMENT_SHIFT = 30;
+
+	private static final int FLAG_BALANCED = 1;
+
+	//	Posición del elemento dentro de un registro
+	private static final int ELEMENT_OFFSET = 24;
+
+	private static final long NONE = -1;
+
+	private final FileChannel channel;
+	private final AtomicReferenceArray<ByteBuffer> segments;
+	private final long fileSize;
+	private final ElementCodec<T> codec;
+	private final ElementCodec<Object> tagCodec;
+	private final boolean balanced;
+	private final int size;
+	private final long instances;
+	private final long root;
+
+	private BinarySearchTreeSnapshot(FileChannel channel, ElementCodec<T> codec, ElementCodec<Object> tagCodec,
+			ByteBuffer header) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+		this.codec = codec;
+		this.tagCodec = tagCodec;
+		if (header.getInt() != MAGIC) {
+			throw new IOException("not a tree snapshot");
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported snapshot version " + version);
+		}
+		this.balanced = (header.getInt() & FLAG_BALANCED) != 0;
+		this.size = header.getInt();
+		this.instances = header.getLong();
+		this.root = header.getLong();
+		if (root != NONE && (root < HEADER_SIZE || root >= fileSize)) {
+			throw new IOException("corrupt snapshot header");
+		}
+		this.segments = new AtomicReferenceArray<ByteBuffer>((int) ((fileSize + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT));
+	}
+
+	private static void checkNotNull(Object o) {
+		if (o == null) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	// Escritura
+
+	/**
+	 * Escribe una instantanea del arbol en el fichero, que se crea o se
+	 * sobreescribe.
+	 *
+	 * Recorre el arbol en postorden sin recursión; cada nodo se escribe
+	 * después de sus hijos, con sus posiciones ya conocidas.
+	 *
+	 * @param tree arbol a guardar (no se modifica).
+	 * @param file fichero destino.
+	 * @param codec codifica los elementos.
+	 * @param tagCodec codifica los valores de las etiquetas.
+	 * @throws IllegalArgumentException si algún parámetro es null
+	 */
+	public static <T extends Comparable<? super T>> void write(BinarySearchTreeImpl<T> tree, Path file,
+			ElementCodec<T> codec, ElementCodec<Object> tagCodec) throws IOException {
+		checkNotNull(tree);
+		checkNotNull(file);
+		checkNotNull(codec);
+		checkNotNull(tagCodec);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ch.position(HEADER_SIZE);
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+			//	Cada registro se codifica aparte para conocer su longitud
+			ByteArrayOutputStream rec = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(rec);
+			long pos = HEADER_SIZE;
+
+			//	Posiciones de los hijos ya escritos, a la espera de su padre
+			long[] done = new long[64];
+			int ndone = 0;
+			Deque<BinarySearchTreeImpl<T>> pending = new ArrayDeque<BinarySearchTreeImpl<T>>();
+			Deque<Boolean> expanded = new ArrayDeque<Boolean>();
+			if (!tree.isEmpty()) {
+				pending.push(tree);
+				expanded.push(Boolean.FALSE);
+			}
+			while (!pending.isEmpty()) {
+				BinarySearchTreeImpl<T> node = pending.pop();
+				if (!expanded.pop()) {
+					//	Primero el izquierdo, luego el derecho y por último el nodo
+					pending.push(node);
+					expanded.push(Boolean.TRUE);
+					if (!node.getRightBST().isEmpty()) {
+						pending.push(node.getRightBST());
+						expanded.push(Boolean.FALSE);
+					}
+					if (!node.getLeftBST().isEmpty()) {
+						pending.push(node.getLeftBST());
+						expanded.push(Boolean.FALSE);
+					}
+					continue;
+				}
+				long right = node.getRightBST().isEmpty() ? NONE : done[--ndone];
+				long left = node.getLeftBST().isEmpty() ? NONE : done[--ndone];
+
+				rec.reset();
+				data.writeLong(left);
+				data.writeLong(right);
+				data.writeInt(node.count);
+				Map<String, Object> tags = node.tags;
+				data.writeInt((tags == null) ? 0 : tags.size());
+				codec.write(node.content, data);
+				if (tags != null) {
+					for (Map.Entry<String, Object> e : tags.entrySet()) {
+						ElementCodec.STRING.write(e.getKey(), data);
+						tagCodec.write(e.getValue(), data);
+					}
+				}
+				int len = rec.size();
+				if (len > SEGMENT_SIZE) {
+					throw new IOException("node record too large: " + len + " bytes");
+				}
+				int room = SEGMENT_SIZE - (int) (pos & (SEGMENT_SIZE - 1));
+				if (len > room) {
+					for (int i = 0; i < room; i++) {
+						out.write(0);
+					}
+					pos += room;
+				}
+				rec.writeTo(out);
+				if (ndone == done.length) {
+					done = Arrays.copyOf(done, 2 * ndone);
+				}
+				done[ndone++] = pos;
+				pos += len;
+			}
+			out.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(tree.balanced ? FLAG_BALANCED : 0);
+			header.putInt(tree.size());
+			header.putLong(tree.subtreeInstances);
+			header.putLong((ndone == 0) ? NONE : done[0]);
+			header.flip();
+			while (header.hasRemaining()) {
+				ch.write(header, HEADER_SIZE - header.remaining());
+			}
+		}
+	}
+
+	// Lectura
+
+	/**
+	 * Abre una instantanea para leerla mapeada en memoria. Solo se lee la
+	 * cabecera; los segmentos se mapean al usarlos por primera vez.
+	 *
+	 * @throws IOException si el fichero no es una instantanea, o es de otra
+	 *         versión
+	 * @throws IllegalArgumentException si algún parámetro es null
+	 */
+	public static <T extends Comparable<? super T>> BinarySearchTreeSnapshot<T> open(Path file,
+			ElementCodec<T> codec, ElementCodec<Object> tagCodec) throws IOException {
+		checkNotNull(file);
+		checkNotNull(codec);
+		checkNotNull(tagCodec);
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (ch.read(header, header.position()) < 0) {
+					throw new IOException("truncated snapshot header");
+				}
+			}
+			header.flip();
+			return new BinarySearchTreeSnapshot<T>(ch, codec, tagCodec, header);
+		} catch (IOException | RuntimeException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Devuelve un buffer propio (para poder leer desde varios hilos) colocado
+	 * al principio del registro que empieza en pos.
+	 */
+	private ByteBuffer record(long pos) {
+		int index = (int) (pos >>> SEGMENT_SHIFT);
+		ByteBuffer segment = segments.get(index);
+		if (segment == null) {
+			segment = map(index);
+		}
+		ByteBuffer rx = segment.duplicate();
+		rx.position((int) (pos & (SEGMENT_SIZE - 1)));
+		return rx;
+	}
+
+	private synchronized ByteBuffer map(int index) {
+		ByteBuffer rx = segments.get(index);
+		if (rx == null) {
+			long from = (long) index << SEGMENT_SHIFT;
+			try {
+				rx = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(SEGMENT_SIZE, fileSize - from));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			segments.set(index, rx);
+		}
+		return rx;
+	}
+
+	/**
+	 * Baja desde la raiz hasta el registro del elemento; devuelve su
+	 * posición, o NONE si no está.
+	 */
+	private long find(T element) {
+		checkNotNull(element);
+		long pos = root;
+		while (pos != NONE) {
+			ByteBuffer b = record(pos);
+			int start = b.position();
+			b.position(start + ELEMENT_OFFSET);
+			int cmp = element.compareTo(codec.read(b));
+			if (cmp == 0) {
+				return pos;
+			}
+			pos = b.getLong(start + ((cmp < 0) ? 0 : 8));
+		}
+		return NONE;
+	}
+
+	/**
+	 * Indica si el elemento está en la instantanea, sin reconstruir el arbol.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public boolean contains(T element) {
+		return find(element) != NONE;
+	}
+
+	/**
+	 * Devuelve el número de instancias del elemento, 0 si no está.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int count(T element) {
+		long pos = find(element);
+		if (pos == NONE) {
+			return 0;
+		}
+		ByteBuffer b = record(pos);
+		return b.getInt(b.position() + 16);
+	}
+
+	/**
+	 * Número de elementos diferentes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Número de instancias de todos los elementos.
+	 */
+	public long instancesCount() {
+		return instances;
+	}
+
+	public boolean isEmpty() {
+		return root == NONE;
+	}
+
+	/**
+	 * Indica si el arbol guardado era equilibrado (AVL).
+	 */
+	public boolean isBalanced() {
+		return balanced;
+	}
+
+	/**
+	 * Reconstruye el arbol en memoria, con la misma forma, counts, etiquetas
+	 * y referencias father que el guardado (y equilibrado si lo era).
+	 *
+	 * Los nodos se crean de la raiz hacia las hojas sin recursión, y después
+	 * se recalculan alturas y totales en orden inverso.
+	 */
+	public BinarySearchTreeImpl<T> toTree() {
+		BinarySearchTreeImpl<T> tree = new BinarySearchTreeImpl<T>(balanced);
+		if (root == NONE) {
+			return tree;
+		}
+		List<BinarySearchTreeImpl<T>> created = new ArrayList<BinarySearchTreeImpl<T>>(size);
+		Deque<BinarySearchTreeImpl<T>> parents = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		Deque<Long> positions = new ArrayDeque<Long>();
+		readInto(tree, null, false, root, parents, positions);
+		created.add(tree);
+		while (!positions.isEmpty()) {
+			long pos = positions.pop();
+			BinarySearchTreeImpl<T> father = parents.pop();
+			boolean right = father.getRightBST() == null;
+			created.add(readInto(null, father, right, pos, parents, positions));
+		}
+		for (int i = created.size() - 1; i >= 0; i--) {
+			created.get(i).restoreTotals();
+		}
+		return tree;
+	}
+
+	/**
+	 * Lee el registro de pos en node (si es la raiz) o en un hijo nuevo de
+	 * father, y deja pendientes sus hijos. Mientras un hijo está pendiente,
+	 * su hueco en el padre es null; así se sabe a qué lado va cada uno.
+	 */
+	private BinarySearchTreeImpl<T> readInto(BinarySearchTreeImpl<T> node, BinarySearchTreeImpl<T> father,
+			boolean right, long pos, Deque<BinarySearchTreeImpl<T>> parents, Deque<Long> positions) {
+		ByteBuffer b = record(pos);
+		long left = b.getLong();
+		long rightPos = b.getLong();
+		int count = b.getInt();
+		int ntags = b.getInt();
+		T element = codec.read(b);
+		Map<String, Object> tags = null;
+		if (ntags > 0) {
+			tags = new HashMap<String, Object>();
+			for (int i = 0; i < ntags; i++) {
+				String k = ElementCodec.STRING.read(b);
+				tags.put(k, tagCodec.read(b));
+			}
+		}
+		if (node == null) {
+			node = father.restoreChild(right, element, count, tags);
+		} else {
+			node.restore(element, count, tags);
+		}
+		//	Se apila primero el izquierdo para sacar antes el derecho
+		if (left != NONE) {
+			node.setLeftBST(null);
+			parents.push(node);
+			positions.push(left);
+		}
+		if (rightPos != NONE) {
+			node.setRightBST(null);
+			parents.push(node);
+			positions.push(rightPos);
+		}
+		return node;
+	}
+
+	/**
+	 * Cierra el fichero. Los segmentos mapeados se liberan cuando el
+	 * recolector de basura los descarta.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
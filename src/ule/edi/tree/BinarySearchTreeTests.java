@@ -1,10 +1,23 @@
 package ule.edi.tree;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import javax.management.ObjectName;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -80,6 +93,20 @@ public class BinarySearchTreeTests {
 	    Assert.assertEquals(ejemplo.toString(), "{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}");
 	}
 	
+	@Test
+	public void testWriteToRenderTo() throws IOException {
+		ejemplo.insert(20);
+		ejemplo.getSubtreeWithPath("L").setTag("x", 1);
+		StringWriter out = new StringWriter();
+		ejemplo.writeTo(out);
+		Assert.assertEquals("{10, {5 [(x, 1)], {2, ∅, ∅}, ∅}, {20(2), {15, ∅, ∅}, {30, ∅, ∅}}}", out.toString());
+		StringBuilder niveles = new StringBuilder();
+		ejemplo.getSubtreeWithPath("L").renderTo(niveles);
+		Assert.assertEquals("5 [(x, 1)]\n|  2\n|  |  ∅\n|  |  ∅\n|  ∅\n", niveles.toString());
+		Assert.assertEquals(niveles.toString(), ejemplo.getSubtreeWithPath("L").render());
+		Assert.assertEquals(AbstractTreeADT.EMPTY_TREE_MARK + "\n", new BinarySearchTreeImpl<Integer>().render());
+	}
+	
 	@Test
 	public void testRemoveConHijoDerecha() {
 	    other.remove(12);
@@ -97,12 +124,389 @@ public class BinarySearchTreeTests {
 	    Assert.assertEquals(9,other.instancesCount());
 	}
 	
+	@Test
+	public void testRankSelect() {
+		ejemplo = new BinarySearchTreeImpl<Integer>();
+		ejemplo.insert(50, 30, 30, 10, 40, 40, 40, 40, 80, 80, 60);
+		Assert.assertEquals(6, ejemplo.size());
+		Assert.assertEquals(11, ejemplo.instancesCount());
+		Assert.assertEquals(0, ejemplo.rank(10));
+		Assert.assertEquals(3, ejemplo.rank(50));
+		Assert.assertEquals(4, ejemplo.rank(55));
+		Assert.assertEquals(7, ejemplo.rankInstances(50));
+		Assert.assertEquals(Integer.valueOf(50), ejemplo.select(3));
+		Assert.assertEquals(Integer.valueOf(30), ejemplo.selectInstance(2));
+		Assert.assertEquals(Integer.valueOf(40), ejemplo.selectInstance(3));
+		ejemplo.remove(40, 40, 40);
+		ejemplo.removeAll(30);
+		Assert.assertEquals(5, ejemplo.size());
+		Assert.assertEquals(6, ejemplo.instancesCount());
+		Assert.assertEquals(Integer.valueOf(40), ejemplo.selectInstance(1));
+		Assert.assertEquals(Integer.valueOf(50), ejemplo.selectInstance(2));
+		Assert.assertEquals(2, ejemplo.getSubtreeWithPath("L").size());
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSelectFueraDeRango() {
+		ejemplo.select(6);
+	}
+	
+	@Test
+	public void testRangos() {
+		ejemplo.insert(20, 20);
+		Assert.assertEquals(Arrays.asList(15, 20, 30), toList(ejemplo.subRange(10, false, 30, true)));
+		Assert.assertEquals(Arrays.asList(15, 20, 20, 20), toList(ejemplo.subRangeInstances(12, true, 30, false)));
+		Assert.assertEquals(Arrays.asList(2, 5), toList(ejemplo.headRange(10, false)));
+		Assert.assertEquals(Arrays.asList(20, 30), toList(ejemplo.tailRange(15, false)));
+		Assert.assertEquals(Arrays.asList(), toList(ejemplo.subRange(11, true, 14, true)));
+		Assert.assertEquals(Arrays.asList(15), toList(ejemplo.getSubtreeWithPath("R").headRange(17, true)));
+		Assert.assertEquals(3, ejemplo.countInRange(10, false, 30, true));
+		Assert.assertEquals(5, ejemplo.instancesCountInRange(10, false, 30, true));
+		Assert.assertEquals(0, ejemplo.countInRange(10, false, 10, false));
+		Assert.assertEquals(1, ejemplo.countInRange(10, true, 10, true));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSubRangeInvertido() {
+		ejemplo.subRange(30, true, 10, true);
+	}
+	
+	@Test
+	public void testNavigableSet() {
+		NavigableSet<Integer> s = ejemplo.asNavigableSet();
+		Assert.assertEquals(6, s.size());
+		Assert.assertEquals(Integer.valueOf(2), s.first());
+		Assert.assertEquals(Integer.valueOf(10), s.floor(12));
+		Assert.assertEquals(Integer.valueOf(15), s.ceiling(12));
+		Assert.assertEquals(Integer.valueOf(15), s.lower(20));
+		Assert.assertEquals(null, s.higher(30));
+		Assert.assertEquals(Arrays.asList(20, 15, 10), new LinkedList<Integer>(s.descendingSet().subSet(20, true, 5, false)));
+		Assert.assertEquals(2, s.headSet(10).size());
+		Assert.assertEquals(Integer.valueOf(30), s.pollLast());
+		Assert.assertFalse(s.add(20));
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, ∅}}", ejemplo.toString());
+		Assert.assertTrue(s.tailSet(10, false).remove(15));
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, ∅, ∅}}", ejemplo.toString());
+	}
+	
+	@Test
+	public void testMultiset() {
+		BinarySearchTreeMultiset<Integer> m = ejemplo.asMultiset();
+		m.add(20);
+		Assert.assertEquals(2, m.add(20, 3));
+		Assert.assertEquals(5, m.count(20));
+		Assert.assertEquals(10, m.size());
+		Assert.assertTrue(m.remove(20));
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20(4), {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(Arrays.asList(2, 5, 10, 15, 20, 20, 20, 20, 30), new LinkedList<Integer>(m));
+		Assert.assertEquals(6, m.elementSet().size());
+	}
+	
+	@Test
+	public void testPersistenteSnapshot() {
+		PersistentBinarySearchTree<Integer> p = new PersistentBinarySearchTree<Integer>();
+		p.insert(10, 20, 5, 2, 15, 30);
+		Assert.assertEquals(ejemplo.toString(), p.toString());
+		PersistentBinarySearchTree<Integer> v1 = p.snapshot();
+		p.insert(20);
+		p.setTag(15, "color", "rojo");
+		p.removeAll(10);
+		Assert.assertEquals("{15 [(color, rojo)], {5, {2, ∅, ∅}, ∅}, {20(2), ∅, {30, ∅, ∅}}}", p.toString());
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", v1.toString());
+		Assert.assertEquals(1, v1.count(20));
+		Assert.assertEquals(null, v1.getTag(15, "color"));
+		Assert.assertEquals(Arrays.asList(2, 5, 10, 15, 20, 30), toList(v1.iterator()));
+	}
+	
+	@Test
+	public void testCopiaYFilterTagsParalelos() {
+		BinarySearchTreeImpl<Integer> t = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 300; i++) {
+			t.insert((i * 37) % 301);
+		}
+		t.insert(100, 100);
+		BinarySearchTreeImpl<Integer> c = t.copy(1);
+		Assert.assertEquals(t.copy().toString(), c.toString());
+		Assert.assertEquals(t.instancesCount(), c.instancesCount());
+		BinarySearchTreeImpl<Integer> n = c.getSubtreeWithPath(c.getPath(100));
+		for (; n.getFather() != null; n = n.getFather()) {
+			Assert.assertTrue(n.getFather().getLeftBST() == n || n.getFather().getRightBST() == n);
+		}
+		Assert.assertTrue(n == c);
+		
+		t.getSubtreeWithPath(t.getPath(100)).setTag("a", 1);
+		t.getSubtreeWithPath(t.getPath(100)).setTag("b", 2);
+		t.getSubtreeWithPath(t.getPath(7)).setTag("b", 3);
+		t.filterTags(1, "a");
+		Assert.assertEquals(1, t.getSubtreeWithPath(t.getPath(100)).getTag("a"));
+		Assert.assertEquals(null, t.getSubtreeWithPath(t.getPath(100)).getTag("b"));
+		Assert.assertEquals(null, t.getSubtreeWithPath(t.getPath(7)).getTag("b"));
+	}
+	
+	@Test
+	public void testStreams() {
+		ejemplo.insert(20, 20);
+		Assert.assertEquals(Arrays.asList(2, 5, 10, 15, 20, 30), ejemplo.stream().collect(Collectors.toList()));
+		Assert.assertEquals(Arrays.asList(2, 5, 10, 15, 20, 20, 20, 30), ejemplo.parallelStreamInstances().collect(Collectors.toList()));
+		Assert.assertEquals(82, ejemplo.parallelStream().mapToInt(Integer::intValue).sum());
+		Spliterator<Integer> s = ejemplo.spliterator();
+		Assert.assertTrue(s.hasCharacteristics(Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.SIZED));
+		Assert.assertFalse(ejemplo.spliteratorInstances().hasCharacteristics(Spliterator.DISTINCT));
+		Spliterator<Integer> prefix = s.trySplit();
+		Assert.assertEquals(3, prefix.estimateSize());
+		Assert.assertEquals(3, s.estimateSize());
+	}
+	
+	@Test
+	public void testArbolesPrimitivos() {
+		IntBinarySearchTree i = new IntBinarySearchTree(2);
+		i.insert(10, 20, 5, 2, 15, 30, 20);
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20(2), {15, ∅, ∅}, {30, ∅, ∅}}}", i.toString());
+		Assert.assertEquals("RL", i.getPath(15));
+		Assert.assertEquals(7, i.instancesCount());
+		i.removeAll(10);
+		Assert.assertEquals("{15, {5, {2, ∅, ∅}, ∅}, {20(2), ∅, {30, ∅, ∅}}}", i.toString());
+		Assert.assertEquals(2, i.count(20));
+		Assert.assertEquals(15, i.iteratorWidth().nextInt());
+		
+		LongBinarySearchTree l = new LongBinarySearchTree();
+		l.insert(10L, 20L, 5L, 2L, 15L, 30L);
+		Assert.assertEquals(ejemplo.toString(), l.toString());
+		l.remove(20L);
+		Assert.assertFalse(l.contains(20L));
+		Assert.assertEquals(2L, l.iterator().nextLong());
+	}
+	
+	@Test
+	public void testArbolFueraDelHeap() {
+		try (OffHeapBinarySearchTree t = OffHeapBinarySearchTree.ofInts()) {
+			Assert.assertTrue(t.insert(10));
+			t.insert(-5);
+			t.insert(20);
+			Assert.assertFalse(t.insert(20));
+			Assert.assertEquals(2, t.count(20));
+			Assert.assertEquals(4, t.instancesCount());
+			t.remove(20);
+			Assert.assertEquals(1, t.removeAll(10));
+			Assert.assertEquals(-5, t.intIterator().nextInt());
+			Assert.assertEquals(2, t.size());
+		}
+		OffHeapBinarySearchTree b = OffHeapBinarySearchTree.ofBytes(3);
+		b.insert(new byte[] { 1, 2, (byte) 200 });
+		b.insert(new byte[] { 1, 2, 3 });
+		Assert.assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, b.bytesIterator().next()));
+		b.close();
+		//	El primer bloque se reserva según lo que ocupa cada nodo
+		try (OffHeapBinarySearchTree w = OffHeapBinarySearchTree.ofBytes(OffHeapBinarySearchTree.MAX_KEY_WIDTH)) {
+			w.insert(new byte[OffHeapBinarySearchTree.MAX_KEY_WIDTH]);
+			Assert.assertTrue(w.reservedBytes() <= OffHeapBinarySearchTree.CHUNK_BYTES);
+		}
+		try {
+			b.contains(new byte[] { 1, 2, 3 });
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			//	cerrado
+		}
+	}
+	
+	@Test
+	public void testInstantaneaBinaria() throws IOException {
+		Path file = Files.createTempFile("bst", ".snap");
+		try {
+			for (boolean balanced : new boolean[] { false, true }) {
+				BinarySearchTreeImpl<Integer> t = new BinarySearchTreeImpl<Integer>(balanced);
+				for (int i = 0; i < 200; i++) {
+					t.insert((i * 37) % 101);
+				}
+				t.findNode(5).setTag("nombre", "cinco");
+				t.findNode(5).setTag("n", 5L);
+				t.findNode(60).setTag("visitado", true);
+				BinarySearchTreeSnapshot.write(t, file, ElementCodec.INTEGER, ElementCodec.TAG_VALUES);
+				try (BinarySearchTreeSnapshot<Integer> s = BinarySearchTreeSnapshot.open(file,
+						ElementCodec.INTEGER, ElementCodec.TAG_VALUES)) {
+					//	Lecturas sobre el fichero mapeado
+					Assert.assertTrue(s.contains(100));
+					Assert.assertFalse(s.contains(101));
+					Assert.assertEquals(2, s.count(5));
+					Assert.assertEquals(0, s.count(-1));
+					Assert.assertEquals(101, s.size());
+					Assert.assertEquals(200, s.instancesCount());
+					Assert.assertEquals(balanced, s.isBalanced());
+					BinarySearchTreeImpl<Integer> r = s.toTree();
+					Assert.assertEquals(t.toString(), r.toString());
+					Assert.assertEquals("cinco", r.findNode(5).getTag("nombre"));
+					Assert.assertEquals(5L, r.findNode(5).getTag("n"));
+					Assert.assertEquals(true, r.findNode(60).getTag("visitado"));
+					Assert.assertEquals(t.height(), r.height());
+					Assert.assertEquals(t.instancesCount(), r.instancesCount());
+					Assert.assertEquals(t.getPath(42), r.getPath(42));
+					Assert.assertEquals(r, r.getRightBST().getFather());
+					r.insert(1000);
+					r.remove(42, 2);
+					Assert.assertFalse(r.contains(42));
+				}
+			}
+			BinarySearchTreeSnapshot.write(new BinarySearchTreeImpl<Integer>(), file,
+					ElementCodec.INTEGER, ElementCodec.TAG_VALUES);
+			try (BinarySearchTreeSnapshot<Integer> s = BinarySearchTreeSnapshot.open(file,
+					ElementCodec.INTEGER, ElementCodec.TAG_VALUES)) {
+				Assert.assertTrue(s.isEmpty());
+				Assert.assertFalse(s.contains(1));
+				Assert.assertTrue(s.toTree().isEmpty());
+			}
+			Files.write(file, new byte[BinarySearchTreeSnapshot.HEADER_SIZE]);
+			try {
+				BinarySearchTreeSnapshot.open(file, ElementCodec.INTEGER, ElementCodec.TAG_VALUES);
+				Assert.fail();
+			} catch (IOException e) {
+				//	no es una instantanea
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void testParserToString() throws IOException {
+		ejemplo.insert(10);
+		ejemplo.insert(30);
+		ejemplo.findNode(5).setTag("color", "rojo");
+		ejemplo.findNode(5).setTag("peso", 3);
+		BinarySearchTreeImpl<Integer> t = BinarySearchTreeParser.parse(new StringReader(ejemplo.toString()),
+				Integer::valueOf, v -> v.equals("rojo") ? v : Integer.valueOf(v), false);
+		Assert.assertEquals(ejemplo.toString(), t.toString());
+		Assert.assertEquals(2, t.findNode(10).count);
+		Assert.assertEquals("rojo", t.findNode(5).getTag("color"));
+		Assert.assertEquals(3, t.findNode(5).getTag("peso"));
+		Assert.assertEquals(ejemplo.instancesCount(), t.instancesCount());
+		Assert.assertEquals(ejemplo.height(), t.height());
+		Assert.assertEquals(t.findNode(10), t.findNode(5).getFather());
+		t.insert(1);
+		Assert.assertEquals("LLL", t.getPath(1));
+
+		//	Degenerado y más grande que el buffer, sin recursión
+		BinarySearchTreeImpl<Integer> lista = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 10000; i++) {
+			lista.insert(i);
+		}
+		StringWriter out = new StringWriter();
+		lista.writeTo(out);
+		out.write("\n");
+		t = BinarySearchTreeParser.parse(new StringReader(out.toString()), Integer::valueOf);
+		Assert.assertTrue(out.toString().length() > (1 << 16));
+		Assert.assertEquals(10000, t.height());
+		Assert.assertEquals(9999, t.getSubtreeWithPath(lista.getPath(9999)).getContent().intValue());
+
+		Assert.assertTrue(BinarySearchTreeParser.parse(new StringReader("∅"), Integer::valueOf).isEmpty());
+		try {
+			BinarySearchTreeParser.parse(new StringReader("{1, ∅}"), Integer::valueOf);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertEquals("malformed tree at character 5: expected \", \"", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testMetricas() throws Exception {
+		Assert.assertNull(BinarySearchTreeImpl.getMetricsListener());
+		TreeMetrics m = TreeMetrics.enable();
+		try {
+			Assert.assertEquals(m, BinarySearchTreeImpl.getMetricsListener());
+			//	{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}
+			Assert.assertTrue(ejemplo.contains(15));
+			Assert.assertFalse(ejemplo.contains(17));
+			Assert.assertEquals(2, m.getOperations());
+			//	15 a profundidad 2; 17 acaba en el hueco derecho de 15, a profundidad 3
+			Assert.assertEquals(6, m.getComparisons());
+			Assert.assertEquals(3, m.getMaxDepth());
+			Assert.assertEquals(2.5, m.getMeanDepth(), 0);
+			long[] h = m.getDepthHistogramOf("CONTAINS");
+			//	Las profundidades 2 y 3 van al mismo cubo, [2, 4)
+			Assert.assertEquals(2, h[TreeMetrics.bucket(3)]);
+			Assert.assertEquals(2, h[2]);
+			Assert.assertEquals(0, h[TreeMetrics.bucket(4)]);
+
+			m.reset();
+			ejemplo.insert(12);
+			//	3 comparaciones hasta 15, y se recalcula desde 15 hasta la raiz
+			Assert.assertEquals(3, m.getComparisons());
+			Assert.assertEquals(6, m.getNodesVisited());
+			Assert.assertEquals(3, m.getMaxDepth());
+			m.reset();
+			ejemplo.removeAll(10);
+			//	El 10 se sustituye por 12, el menor de sus mayores (20, 15, 12)
+			Assert.assertEquals(1, m.getComparisons());
+			Assert.assertEquals(1 + 3 + 3, m.getNodesVisited());
+			Assert.assertEquals(1L, m.getOperationsByType().get("REMOVE_ALL").longValue());
+			Assert.assertEquals("RL", ejemplo.getPath(15));
+			try {
+				ejemplo.remove(99);
+				Assert.fail();
+			} catch (NoSuchElementException e) {
+				//	la busqueda fallida tambien se mide
+			}
+			Assert.assertEquals(3, m.getOperations());
+			//	Los huecos usan el arbol vacio compartido
+			Assert.assertEquals(0, m.getEmptySubtreeAllocations());
+
+			ObjectName name = new ObjectName(TreeMetrics.OBJECT_NAME);
+			Assert.assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Operations"));
+
+			//	Un arbol que se queda vacio conserva su raiz como nodo vacio propio
+			BinarySearchTreeImpl<Integer> uno = new BinarySearchTreeImpl<Integer>();
+			uno.insert(1);
+			uno.remove(1);
+			Assert.assertEquals(1, m.getEmptySubtreeAllocations());
+			uno.copy();
+			Assert.assertEquals(2, m.getEmptySubtreeAllocations());
+			Assert.assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EmptySubtreeAllocations"));
+		} finally {
+			TreeMetrics.disable();
+		}
+		Assert.assertNull(BinarySearchTreeImpl.getMetricsListener());
+		ejemplo.contains(15);
+		Assert.assertEquals(5, m.getOperations());
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer()
+				.isRegistered(new ObjectName(TreeMetrics.OBJECT_NAME)));
+	}
+	
+	private static List<Integer> toList(Iterator<Integer> it) {
+		List<Integer> rx = new LinkedList<Integer>();
+		while (it.hasNext()) {
+			rx.add(it.next());
+		}
+		return rx;
+	}
+	
 	@Test
 	public void testGetSubtreeWithPath() {
 	    Assert.assertEquals("{2, ∅, ∅}",other.getSubtreeWithPath("LL").toString());
 	    Assert.assertEquals("{30, ∅, ∅}",ejemplo.getSubtreeWithPath("RR").toString());
 	}
 	
+	@Test
+	public void testGetSubtreeWithPathOffset() {
+		Assert.assertEquals("{2, ∅, ∅}", other.getSubtreeWithPath("xxLL", 2).toString());
+		Assert.assertSame(other, other.getSubtreeWithPath("LL", 2));
+		List<BinarySearchTreeImpl<Integer>> varios = ejemplo.getSubtreesWithPaths(Arrays.asList("", "L", "LL", "R", "RL", "RR"));
+		Assert.assertEquals(6, varios.size());
+		Assert.assertEquals("{2, ∅, ∅}", varios.get(2).toString());
+		Assert.assertEquals("{15, ∅, ∅}", varios.get(4).toString());
+		Assert.assertEquals("{30, ∅, ∅}", varios.get(5).toString());
+		Assert.assertSame(ejemplo, varios.get(0));
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void testGetSubtreesWithPathsNoExiste() {
+		ejemplo.getSubtreesWithPaths(Arrays.asList("L", "LR"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetSubtreeWithPathNull() {
+		String camino = null;
+		ejemplo.getSubtreeWithPath(camino);
+	}
+	
 	@Test
 	public void testGetRoadUpRight() {
 		other.insert(30);
@@ -146,6 +550,28 @@ public class BinarySearchTreeTests {
 	    Assert.assertEquals("RL" , ejemplo.getPath(15));
 	}
 	
+	@Test
+	public void testGetEncodedPath() {
+		Assert.assertEquals(TreePath.EMPTY, ejemplo.getEncodedPath(10));
+		Assert.assertEquals("RL", ejemplo.getEncodedPath(15).toString());
+		Assert.assertEquals(TreePath.parse("LL"), ejemplo.getEncodedPath(2));
+		Assert.assertEquals("{15, ∅, ∅}", ejemplo.getSubtreeWithPath(ejemplo.getEncodedPath(15)).toString());
+		
+		BinarySearchTreeImpl<Integer> lista = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 100; i++) {
+			lista.insert(i);
+		}
+		TreePath camino = lista.getEncodedPath(99);
+		Assert.assertEquals(99, camino.depth());
+		Assert.assertEquals(lista.getPath(99), camino.toString());
+		Assert.assertEquals(Integer.valueOf(99), lista.getSubtreeWithPath(camino).getContent());
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void testGetSubtreeWithEncodedPathNoExiste() {
+		ejemplo.getSubtreeWithPath(TreePath.parse("LR"));
+	}
+	
 	@Test
 	public void testIteratorWidth() {
 			
@@ -171,6 +597,14 @@ public class BinarySearchTreeTests {
 
 		}
 	
+	@Test(expected = ConcurrentModificationException.class)
+	public void testIteratorWidthModificado() {
+			Iterator <Integer> prueba = other.iteratorWidthInstances();
+			prueba.next();
+			other.insert(20);
+			prueba.next();
+		}
+	
 	@Test
 	public void testRemoveCountMayor1HastaVaciar() {
 		ejemplo.insert(20);
@@ -195,6 +629,54 @@ public class BinarySearchTreeTests {
 		ejemplo.getLeftBST().getFather();
 	}
 	
+	@Test
+	public void testSubarbolVacioCompartido() {
+		BinarySearchTreeImpl<Integer> hoja = ejemplo.getSubtreeWithPath("LL");
+		Assert.assertTrue(hoja.isLeaf());
+		Assert.assertTrue(hoja.getSubtree(0).isEmpty());
+		Assert.assertSame(hoja.getSubtree(0), ejemplo.getSubtreeWithPath("RR").getSubtree(1));
+		Assert.assertEquals(AbstractTreeADT.EMPTY_TREE_MARK, hoja.getSubtree(1).toString());
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSubarbolVacioInmutable() {
+		ejemplo.getSubtreeWithPath("LL").getSubtree(0).setContent(3);
+	}
+	
+	@Test
+	public void testEtiquetas() {
+		BinarySearchTreeImpl<Integer> hoja = ejemplo.getSubtreeWithPath("LL");
+		Assert.assertNull(hoja.getTag("a"));
+		for (int i = 5; i >= 1; i--) {
+			hoja.setTag("t" + i, i);
+		}
+		hoja.setTag("t3", 33);
+		Assert.assertEquals(5, hoja.getTags().size());
+		Assert.assertEquals(33, hoja.getTag("t3"));
+		Assert.assertEquals("{2 [(t1, 1), (t2, 2), (t3, 33), (t4, 4), (t5, 5)], ∅, ∅}", hoja.toString());
+		ejemplo.filterTags("t2", "t5");
+		Assert.assertEquals("{2 [(t2, 2), (t5, 5)], ∅, ∅}", hoja.toString());
+		Assert.assertEquals("2 [(t2, 2), (t5, 5)]\n|  ∅\n|  ∅\n", hoja.render());
+		ejemplo.filterTags();
+		Assert.assertTrue(hoja.getTags().isEmpty());
+	}
+	
+	@Test
+	public void testEtiquetasArbolVacio() {
+		new BinarySearchTreeImpl<Integer>().filterTags("a");
+		
+		BinarySearchTreeImpl<Integer> vaciado = new BinarySearchTreeImpl<Integer>();
+		vaciado.insert(1);
+		vaciado.setTag("a", 1);
+		vaciado.remove(1);
+		vaciado.filterTags("a");
+		Assert.assertTrue(vaciado.isEmpty());
+		
+		ejemplo.getSubtreeWithPath("LL").getSubtree(0).filterTags("a");
+		ejemplo.getSubtreeWithPath("L").getSubtree(1).filterTags("a");
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+	}
+	
 	@Test
 	public void testEmptyBSt() {
 		ejemplo.empty();
@@ -207,6 +689,15 @@ public class BinarySearchTreeTests {
 		Assert.assertEquals("{15, {5, {2, ∅, ∅}, ∅}, {20, ∅, ∅}}",ejemplo.toString());
 	}
 	
+	@Test
+	public void testRemoveArrayConRepetidos() {
+		ejemplo.insert(20);
+		Assert.assertEquals(4, ejemplo.remove(20, 99, null, 20, 20, 10, 2));
+		Assert.assertEquals("{15, {5, ∅, ∅}, {30, ∅, ∅}}", ejemplo.toString());
+		Assert.assertEquals(3, ejemplo.size());
+		Assert.assertEquals(3, ejemplo.instancesCount());
+	}
+	
 	@Test
 	public void testInsertCollection() {
 		LinkedList<Integer> lista = new LinkedList<Integer>();
@@ -226,6 +717,18 @@ public class BinarySearchTreeTests {
 		ejemplo.remove(5,1);
 	}
 	
+	@Test
+	public void testRemoveNumInstancias() {
+		ejemplo.insert(5, 5, 10);
+		ejemplo.remove(5, 1);
+		Assert.assertEquals("{10(2), {5(2), {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		ejemplo.remove(10, 5);
+		Assert.assertEquals("{15, {5(2), {2, ∅, ∅}, ∅}, {20, ∅, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(2, ejemplo.removeAll(5));
+		Assert.assertEquals("{15, {2, ∅, ∅}, {20, ∅, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(4, ejemplo.instancesCount());
+	}
+	
 	@Test
 	public void testRemove1Hijo() {
 		ejemplo.remove(5);
@@ -244,6 +747,88 @@ public class BinarySearchTreeTests {
 		Assert.assertEquals("{15, {5, {2, ∅, ∅}, ∅}, {20, ∅, {30, ∅, ∅}}}",ejemplo.toString());
 	}
 	
+	@Test
+	public void testBalancedInsertOrdenado() {
+		BinarySearchTreeImpl<Integer> avl = new BinarySearchTreeImpl<Integer>(true);
+		avl.insert(1, 2, 3, 4, 5, 6, 7);
+		Assert.assertEquals("{4, {2, {1, ∅, ∅}, {3, ∅, ∅}}, {6, {5, ∅, ∅}, {7, ∅, ∅}}}", avl.toString());
+		Assert.assertEquals(3, avl.height());
+		Assert.assertEquals(avl, avl.getSubtreeWithPath("R").getFather());
+		Assert.assertEquals(avl.getSubtreeWithPath("R"), avl.getSubtreeWithPath("RL").getFather());
+	}
+	
+	@Test
+	public void testBalancedCountYTags() {
+		BinarySearchTreeImpl<Integer> avl = new BinarySearchTreeImpl<Integer>(true);
+		avl.insert(1, 1, 2);
+		avl.getSubtreeWithPath("").setTag("k", 1);
+		avl.insert(3);
+		Assert.assertEquals("{2, {1(2) [(k, 1)], ∅, ∅}, {3, ∅, ∅}}", avl.toString());
+		avl.remove(3);
+		avl.remove(2);
+		Assert.assertEquals("{1(2) [(k, 1)], ∅, ∅}", avl.toString());
+	}
+	
+	@Test
+	public void testBalancedAltura() {
+		BinarySearchTreeImpl<Integer> avl = new BinarySearchTreeImpl<Integer>(true);
+		for (int i = 0; i < 4096; i++) {
+			avl.insert(i);
+		}
+		Assert.assertEquals(13, avl.height());
+		for (int i = 0; i < 4096; i += 2) {
+			avl.remove(i);
+		}
+		Assert.assertEquals(2048, avl.size());
+		Assert.assertTrue(avl.height() <= 12);
+		Assert.assertEquals("LLLLLLLLLLL", avl.getPath(1));
+	}
+	
+	@Test
+	public void testArbolDegeneradoSinDesbordarPila() {
+		BinarySearchTreeImpl<Integer> lista = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 20000; i++) {
+			lista.insert(i);
+		}
+		lista.insert(19999);
+		Assert.assertTrue(lista.contains(19999));
+		Assert.assertEquals(20000, lista.size());
+		Assert.assertEquals(20001, lista.instancesCount());
+		BinarySearchTreeImpl<Integer> copia = lista.copy();
+		Assert.assertEquals(lista.toString(), copia.toString());
+		Assert.assertTrue(copia.toString().startsWith("{0, ∅, {1, ∅, {2, ∅, "));
+		Assert.assertTrue(copia.getSubtreeWithPath(lista.getPath(17000)).render().startsWith("17000\n|  ∅\n|  17001\n|  |  ∅\n"));
+		lista.remove(19999);
+		lista.remove(19999);
+		Assert.assertFalse(lista.contains(19999));
+	}
+	
+	@Test
+	public void testBulkInsert() {
+		BinarySearchTreeImpl<Integer> arbol = new BinarySearchTreeImpl<Integer>();
+		Assert.assertEquals(8, arbol.bulkInsert(1, 2, 2, 3, null, 4, 5, 6, 7));
+		Assert.assertEquals("{4, {2(2), {1, ∅, ∅}, {3, ∅, ∅}}, {6, {5, ∅, ∅}, {7, ∅, ∅}}}", arbol.toString());
+		Assert.assertEquals(arbol.getSubtreeWithPath("L"), arbol.getSubtreeWithPath("LR").getFather());
+		
+		arbol = new BinarySearchTreeImpl<Integer>();
+		arbol.bulkInsert(7, 3, 5, 1, 6, 4, 2, 2);
+		Assert.assertEquals("{4, {2(2), {1, ∅, ∅}, {3, ∅, ∅}}, {6, {5, ∅, ∅}, {7, ∅, ∅}}}", arbol.toString());
+	}
+	
+	@Test
+	public void testBulkInsertArbolNoVacio() {
+		ejemplo.setTag("raiz", 1);
+		LinkedList<Integer> lista = new LinkedList<Integer>();
+		lista.add(25);
+		lista.add(30);
+		lista.add(1);
+		Assert.assertEquals(3, ejemplo.bulkInsert(lista));
+		Assert.assertEquals("{10 [(raiz, 1)], {2, {1, ∅, ∅}, {5, ∅, ∅}}, {20, {15, ∅, ∅}, {25, ∅, {30(2), ∅, ∅}}}}", ejemplo.toString());
+		Assert.assertEquals(8, ejemplo.size());
+		Assert.assertEquals(9, ejemplo.instancesCount());
+		Assert.assertEquals(4, ejemplo.height());
+	}
+	
 	@Test
 	public void testtagPosDescend() {
 			ejemplo = new BinarySearchTreeImpl<Integer>();
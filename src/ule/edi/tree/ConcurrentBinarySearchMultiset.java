@@ -0,0 +1,268 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Multiconjunto ordenado concurrente y no bloqueante, con la semántica de
+ * instancias de {@link BinarySearchTreeImpl} (insert incrementa el count de
+ * un elemento que ya está, remove lo decrementa y elimina el elemento al
+ * llegar a 0).
+ *
+ * Los elementos están en un {@link ConcurrentSkipListMap}, ordenado y sin
+ * cerrojos, y cada uno tiene su contador: incrementar un elemento que ya
+ * existe es una sola operación CAS sobre su contador, y añadir uno nuevo es
+ * un putIfAbsent en el mapa, sin ningún cerrojo global.
+ *
+ * Un contador a 0 está "muerto": su elemento se está eliminando. Ningún
+ * hilo lo vuelve a incrementar; quien lo encuentra ayuda a quitarlo del
+ * mapa y reintenta con un contador nuevo, así una inserción nunca se pierde
+ * en un nodo que otro hilo va a borrar.
+ *
+ * size() e instancesCount() se mantienen con {@link LongAdder}, en O(1);
+ * como los iteradores, son exactos en reposo y aproximados mientras hay
+ * escrituras en curso.
+ *
+ * @param <T> tipo de los elementos, comparable.
+ */
+public class ConcurrentBinarySearchMultiset<T extends Comparable<? super T>> {
+
+	private final ConcurrentSkipListMap<T, AtomicInteger> counts = new ConcurrentSkipListMap<T, AtomicInteger>();
+	private final LongAdder distinct = new LongAdder();
+	private final LongAdder instances = new LongAdder();
+
+	private static void checkNotNull(Object element) {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Inserta una instancia del elemento.
+	 *
+	 * @param element valor a insertar.
+	 * @return true si el elemento no estaba, false si solo se incrementó su count
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public boolean insert(T element) {
+		checkNotNull(element);
+		while (true) {
+			AtomicInteger c = counts.get(element);
+			if (c == null) {
+				c = counts.putIfAbsent(element, new AtomicInteger(1));
+				if (c == null) {
+					distinct.increment();
+					instances.increment();
+					return true;
+				}
+			}
+			for (int n = c.get(); n > 0; n = c.get()) {
+				if (c.compareAndSet(n, n + 1)) {
+					instances.increment();
+					return false;
+				}
+			}
+			//	Contador muerto: se quita del mapa (si sigue) y se reintenta
+			counts.remove(element, c);
+		}
+	}
+
+	/**
+	 * Inserta una instancia de cada elemento.
+	 *
+	 * @return número de elementos insertados (diferentes de null)
+	 */
+	@SafeVarargs
+	public final int insert(T... elements) {
+		int rx = 0;
+		for (T e : elements) {
+			if (e != null) {
+				insert(e);
+				rx++;
+			}
+		}
+		return rx;
+	}
+
+	/**
+	 * Quita hasta num instancias del elemento; devuelve las que quitó.
+	 */
+	private int decrement(T element, int num) {
+		checkNotNull(element);
+		while (true) {
+			AtomicInteger c = counts.get(element);
+			if (c == null) {
+				throw new NoSuchElementException();
+			}
+			int n = c.get();
+			if (n == 0) {
+				//	Otro hilo lo está eliminando
+				counts.remove(element, c);
+				continue;
+			}
+			int left = Math.max(0, n - num);
+			if (c.compareAndSet(n, left)) {
+				instances.add(left - n);
+				if (left == 0) {
+					//	Solo el hilo que lo dejó a 0 lo descuenta
+					distinct.decrement();
+					counts.remove(element, c);
+				}
+				return n - left;
+			}
+		}
+	}
+
+	/**
+	 * Elimina una instancia del elemento.
+	 *
+	 * @throws NoSuchElementException si el elemento no está
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public void remove(T element) {
+		decrement(element, 1);
+	}
+
+	/**
+	 * Elimina num instancias del elemento (todas, si tiene num o menos).
+	 *
+	 * @throws NoSuchElementException si el elemento no está
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public void remove(T element, int num) {
+		decrement(element, num);
+	}
+
+	/**
+	 * Elimina todas las instancias del elemento.
+	 *
+	 * @return número de instancias eliminadas
+	 * @throws NoSuchElementException si el elemento no está
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int removeAll(T element) {
+		return decrement(element, Integer.MAX_VALUE);
+	}
+
+	public boolean contains(T element) {
+		return count(element) > 0;
+	}
+
+	/**
+	 * Devuelve el número de instancias del elemento, 0 si no está.
+	 */
+	public int count(T element) {
+		checkNotNull(element);
+		AtomicInteger c = counts.get(element);
+		return (c == null) ? 0 : c.get();
+	}
+
+	/**
+	 * Número de elementos diferentes.
+	 */
+	public int size() {
+		return distinct.intValue();
+	}
+
+	/**
+	 * Número de instancias de todos los elementos.
+	 */
+	public int instancesCount() {
+		return instances.intValue();
+	}
+
+	public boolean isEmpty() {
+		return counts.isEmpty();
+	}
+
+	/**
+	 * Iterador en orden ascendente sobre los elementos diferentes.
+	 */
+	public Iterator<T> iterator() {
+		return new CountIterator(false);
+	}
+
+	/**
+	 * Iterador en orden ascendente que repite cada elemento tantas veces como
+	 * instancias tenía al llegar a él.
+	 */
+	public Iterator<T> iteratorInstances() {
+		return new CountIterator(true);
+	}
+
+	/**
+	 * Copia el contenido en un {@link BinarySearchTreeImpl} (construido con
+	 * bulkInsert, así que queda equilibrado), con el count de cada elemento.
+	 */
+	public BinarySearchTreeImpl<T> toBinarySearchTree() {
+		BinarySearchTreeImpl<T> tree = new BinarySearchTreeImpl<T>();
+		List<T> keys = new ArrayList<T>();
+		List<Integer> n = new ArrayList<Integer>();
+		for (Map.Entry<T, AtomicInteger> e : counts.entrySet()) {
+			int c = e.getValue().get();
+			if (c > 0) {
+				keys.add(e.getKey());
+				n.add(c);
+			}
+		}
+		tree.bulkInsert(keys);
+		for (int i = 0; i < keys.size(); i++) {
+			if (n.get(i) > 1) {
+				tree.findNode(keys.get(i)).setCount(n.get(i));
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Recorre el mapa saltándose los contadores muertos.
+	 */
+	private class CountIterator implements Iterator<T> {
+
+		private final Iterator<Map.Entry<T, AtomicInteger>> entries = counts.entrySet().iterator();
+		private final boolean repeat;
+		private T next;
+		private int remaining;
+
+		CountIterator(boolean repeat) {
+			this.repeat = repeat;
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (entries.hasNext()) {
+				Map.Entry<T, AtomicInteger> e = entries.next();
+				int c = e.getValue().get();
+				if (c > 0) {
+					next = e.getKey();
+					remaining = repeat ? c : 1;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			T rx = next;
+			if (--remaining == 0) {
+				advance();
+			}
+			return rx;
+		}
+	}
+}
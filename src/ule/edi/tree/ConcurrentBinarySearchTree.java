@@ -0,0 +1,275 @@
+package ule.edi.tree;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Fachada segura para hilos sobre un {@link BinarySearchTreeImpl}, pensada
+ * para muchos lectores y pocos escritores.
+ *
+ * Las escrituras (insert, remove...) toman el cerrojo en exclusiva. Las
+ * lecturas que bajan desde la raiz (contains, count, getPath, size...) son
+ * optimistas con un {@link StampedLock}: no bloquean a nadie y solo se
+ * repiten si entre tanto hubo una escritura; tras {@link #OPTIMISTIC_ATTEMPTS}
+ * intentos fallidos (o si hay un escritor activo) se toma el cerrojo de
+ * lectura.
+ *
+ * Una lectura optimista puede ver el arbol a medio modificar, así que los
+ * descensos no confian en lo que leen: se cortan si dan más pasos que la
+ * altura leida al empezar, y cualquier excepción se descarta si el sello
+ * ya no es valido. Solo se devuelve (o se lanza) un resultado validado.
+ *
+ * @param <T> tipo de los elementos, comparable.
+ */
+public class ConcurrentBinarySearchTree<T extends Comparable<? super T>> {
+
+	/**
+	 * Lecturas optimistas que se intentan antes de tomar el cerrojo de lectura.
+	 */
+	public static final int OPTIMISTIC_ATTEMPTS = 2;
+
+	//	Señal interna de que un descenso optimista vio un estado inconsistente
+	private static final class Inconsistent extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		Inconsistent() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final Inconsistent INCONSISTENT = new Inconsistent();
+
+	//	Una lectura sobre el arbol; maxSteps limita los pasos de los descensos
+	private interface Read<T extends Comparable<? super T>, R> {
+		R apply(BinarySearchTreeImpl<T> tree, int maxSteps);
+	}
+
+	private final BinarySearchTreeImpl<T> tree;
+	private final StampedLock lock = new StampedLock();
+
+	public ConcurrentBinarySearchTree() {
+		this(false);
+	}
+
+	/**
+	 * @param balanced si es cierto, el arbol interno se mantiene equilibrado (AVL)
+	 */
+	public ConcurrentBinarySearchTree(boolean balanced) {
+		this.tree = new BinarySearchTreeImpl<T>(balanced);
+	}
+
+	private <R> R read(Read<T, R> op) {
+		for (int i = 0; i < OPTIMISTIC_ATTEMPTS; i++) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp == 0) {
+				//	Hay un escritor; se espera con el cerrojo de lectura
+				break;
+			}
+			R rx;
+			try {
+				rx = op.apply(tree, tree.height);
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+				continue;
+			}
+			if (lock.validate(stamp)) {
+				return rx;
+			}
+		}
+		long stamp = lock.readLock();
+		try {
+			return op.apply(tree, Integer.MAX_VALUE);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Baja desde la raiz hasta el nodo con el elemento, null si no está.
+	 * Si path no es null, va acumulando en él el camino de Ls y Rs.
+	 */
+	private static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> descend(
+			BinarySearchTreeImpl<T> tree, T element, int maxSteps, StringBuilder path) {
+		BinarySearchTreeImpl<T> node = tree;
+		int steps = 0;
+		while (node.content != null) {
+			if (++steps > maxSteps) {
+				throw INCONSISTENT;
+			}
+			int cmp = element.compareTo(node.content);
+			if (cmp == 0) {
+				return node;
+			}
+			if (cmp < 0) {
+				if (path != null) {
+					path.append('L');
+				}
+				node = node.getLeftBST();
+			} else {
+				if (path != null) {
+					path.append('R');
+				}
+				node = node.getRightBST();
+			}
+		}
+		return null;
+	}
+
+	private static void checkNotNull(Object element) {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	//	Lecturas optimistas
+
+	/**
+	 * @see BinarySearchTreeImpl#contains(Comparable)
+	 */
+	public boolean contains(T element) {
+		checkNotNull(element);
+		return read((t, max) -> descend(t, element, max, null) != null);
+	}
+
+	/**
+	 * Devuelve el número de instancias del elemento, 0 si no está.
+	 *
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public int count(T element) {
+		checkNotNull(element);
+		return read((t, max) -> {
+			BinarySearchTreeImpl<T> node = descend(t, element, max, null);
+			return (node == null) ? 0 : node.count;
+		});
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#getPath(Comparable)
+	 */
+	public String getPath(T element) {
+		checkNotNull(element);
+		String path = read((t, max) -> {
+			StringBuilder sb = new StringBuilder();
+			return (descend(t, element, max, sb) == null) ? null : sb.toString();
+		});
+		if (path == null) {
+			throw new NoSuchElementException();
+		}
+		return path;
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#size()
+	 */
+	public int size() {
+		return read((t, max) -> t.size());
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#instancesCount()
+	 */
+	public int instancesCount() {
+		return read((t, max) -> t.instancesCount());
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#height()
+	 */
+	public int height() {
+		return read((t, max) -> t.height());
+	}
+
+	//	Lecturas que recorren todo el arbol, con el cerrojo de lectura
+
+	/**
+	 * Devuelve una copia del arbol en este instante, que se puede recorrer
+	 * sin cerrojos.
+	 */
+	public BinarySearchTreeImpl<T> snapshot() {
+		long stamp = lock.readLock();
+		try {
+			return tree.copy();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public String toString() {
+		long stamp = lock.readLock();
+		try {
+			return tree.toString();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	//	Escrituras, en exclusiva
+
+	/**
+	 * @see BinarySearchTreeImpl#insert(Comparable)
+	 */
+	public boolean insert(T element) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.insert(element);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#insert(Comparable...)
+	 */
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	public final int insert(T... elements) {
+		long stamp = lock.writeLock();
+		try {
+			//	El array solo se lee y no se guarda, ni aquí ni en tree.insert
+			return tree.insert(elements);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#remove(Comparable)
+	 */
+	public void remove(T element) {
+		long stamp = lock.writeLock();
+		try {
+			tree.remove(element);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#remove(Comparable, int)
+	 */
+	public void remove(T element, int num) {
+		long stamp = lock.writeLock();
+		try {
+			tree.remove(element, num);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#removeAll(Comparable)
+	 */
+	public int removeAll(T element) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.removeAll(element);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package ule.edi.tree;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Pruebas de estrés de {@link ConcurrentBinarySearchTree}: un escritor y
+ * varios lectores a la vez, comprobando contra un modelo de referencia.
+ *
+ * Los pares de 0 a 2*KEYS estan siempre en el arbol (con 1 o 2 instancias)
+ * y el escritor inserta y elimina los impares, así que cualquier lectura
+ * de un par tiene un resultado conocido aunque se cruce con una escritura.
+ */
+public class ConcurrentBinarySearchTreeTests {
+
+	private static final int KEYS = 2000;
+
+	private static final long RUN_MILLIS = 200;
+
+	private ConcurrentBinarySearchTree<Integer> newTree(boolean balanced) {
+		ConcurrentBinarySearchTree<Integer> t = new ConcurrentBinarySearchTree<Integer>(balanced);
+		for (int i = 0; i < KEYS; i++) {
+			//	Orden disperso para que el arbol no equilibrado no degenere
+			t.insert(2 * ((i * 7919) % KEYS));
+		}
+		return t;
+	}
+
+	/**
+	 * Ejecuta el escritor y readers lectores durante RUN_MILLIS; devuelve las
+	 * lecturas por segundo y deja en model lo que escribio el escritor.
+	 */
+	private long run(final ConcurrentBinarySearchTree<Integer> t, int readers,
+			final Map<Integer, Integer> model) throws InterruptedException {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicLong reads = new AtomicLong();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+
+		Thread writer = new Thread(() -> {
+			try {
+				start.await();
+				Random r = new Random(42);
+				while (!stop.get()) {
+					int k = r.nextInt(2 * KEYS);
+					//	Los pares solo alternan entre 1 y 2 instancias
+					int n = model.getOrDefault(k, 0);
+					if (k % 2 == 0) {
+						if (n == 1) {
+							t.insert(k);
+							model.put(k, 2);
+						} else {
+							t.remove(k);
+							model.put(k, 1);
+						}
+					} else if (n == 0) {
+						t.insert(k);
+						model.put(k, 1);
+					} else {
+						t.removeAll(k);
+						model.remove(k);
+					}
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		});
+
+		Thread[] rs = new Thread[readers];
+		for (int i = 0; i < readers; i++) {
+			final int seed = i;
+			rs[i] = new Thread(() -> {
+				try {
+					start.await();
+					Random r = new Random(seed);
+					long local = 0;
+					while (!stop.get()) {
+						int k = 2 * r.nextInt(KEYS);
+						Assert.assertTrue(t.contains(k));
+						int c = t.count(k);
+						Assert.assertTrue("count " + c, c == 1 || c == 2);
+						String path = t.getPath(k);
+						Assert.assertTrue(path.length() < t.height() + 64);
+						Assert.assertFalse(t.contains(-1 - k));
+						local += 4;
+					}
+					reads.addAndGet(local);
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+		}
+
+		writer.start();
+		for (Thread r : rs) {
+			r.start();
+		}
+		long t0 = System.nanoTime();
+		start.countDown();
+		Thread.sleep(RUN_MILLIS);
+		stop.set(true);
+		writer.join();
+		for (Thread r : rs) {
+			r.join();
+		}
+		long nanos = System.nanoTime() - t0;
+
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		return reads.get() * TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	private void checkModel(ConcurrentBinarySearchTree<Integer> t, Map<Integer, Integer> model) {
+		BinarySearchTreeImpl<Integer> s = t.snapshot();
+		Iterator<Integer> it = s.asNavigableSet().iterator();
+		for (Map.Entry<Integer, Integer> e : model.entrySet()) {
+			Assert.assertEquals(e.getKey(), it.next());
+			Assert.assertEquals(e.getValue().intValue(), t.count(e.getKey()));
+		}
+		Assert.assertFalse(it.hasNext());
+		Assert.assertEquals(model.size(), t.size());
+	}
+
+	private Map<Integer, Integer> initialModel() {
+		Map<Integer, Integer> model = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < KEYS; i++) {
+			model.put(2 * i, 1);
+		}
+		return model;
+	}
+
+	@Test
+	public void testLectoresYEscritorConcurrentes() throws InterruptedException {
+		for (boolean balanced : new boolean[] { false, true }) {
+			ConcurrentBinarySearchTree<Integer> t = newTree(balanced);
+			Map<Integer, Integer> model = initialModel();
+			run(t, 4, model);
+			checkModel(t, model);
+		}
+	}
+
+	@Test
+	public void testRendimientoLectores() throws InterruptedException {
+		int max = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+		for (int readers = 1; readers <= max; readers *= 2) {
+			ConcurrentBinarySearchTree<Integer> t = newTree(true);
+			Map<Integer, Integer> model = initialModel();
+			Assert.assertTrue(run(t, readers, model) > 0);
+			checkModel(t, model);
+		}
+	}
+
+	@Test
+	public void testMultisetConcurrente() throws InterruptedException {
+		final ConcurrentBinarySearchMultiset<Integer> m = new ConcurrentBinarySearchMultiset<Integer>();
+		final int threads = 4;
+		final int rounds = 20000;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] ts = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int id = i;
+			ts[i] = new Thread(() -> {
+				try {
+					for (int j = 0; j < rounds; j++) {
+						//	Claves compartidas: se incrementan y se eliminan a la vez
+						int k = j % 16;
+						m.insert(k);
+						m.insert(k);
+						m.remove(k);
+						//	Claves propias de cada hilo
+						m.insert(1000 + id);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+		}
+		for (Thread t : ts) {
+			t.start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		//	Cada ronda deja una instancia de la clave compartida y otra de la propia
+		Assert.assertEquals(2 * threads * rounds, m.instancesCount());
+		Assert.assertEquals(16 + threads, m.size());
+		Assert.assertEquals(threads * rounds / 16, m.count(3));
+		Assert.assertEquals(rounds, m.count(1000));
+		BinarySearchTreeImpl<Integer> t = m.toBinarySearchTree();
+		Assert.assertEquals(m.instancesCount(), t.instancesCount());
+		Iterator<Integer> it = m.iterator();
+		for (int k = 0; k < 16; k++) {
+			Assert.assertEquals(Integer.valueOf(k), it.next());
+		}
+		Assert.assertEquals(rounds, m.removeAll(1000));
+		Assert.assertFalse(m.contains(1000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testContainsNull() {
+		new ConcurrentBinarySearchTree<Integer>().contains(null);
+	}
+}
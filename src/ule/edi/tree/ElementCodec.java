@@ -0,0 +1,137 @@
+package ule.edi.tree;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codifica elementos (o valores de etiquetas) en binario para las
+ * instantaneas de {@link BinarySearchTreeSnapshot}.
+ *
+ * write escribe el valor en un {@link DataOutput} (big-endian) y read lo
+ * vuelve a leer desde la posición actual de un {@link ByteBuffer},
+ * avanzándola justo lo que ocupa.
+ *
+ * @param <T> tipo de los valores.
+ */
+public interface ElementCodec<T> {
+
+	void write(T value, DataOutput out) throws IOException;
+
+	T read(ByteBuffer in);
+
+	ElementCodec<Integer> INTEGER = new ElementCodec<Integer>() {
+
+		@Override
+		public void write(Integer value, DataOutput out) throws IOException {
+			out.writeInt(value);
+		}
+
+		@Override
+		public Integer read(ByteBuffer in) {
+			return in.getInt();
+		}
+	};
+
+	ElementCodec<Long> LONG = new ElementCodec<Long>() {
+
+		@Override
+		public void write(Long value, DataOutput out) throws IOException {
+			out.writeLong(value);
+		}
+
+		@Override
+		public Long read(ByteBuffer in) {
+			return in.getLong();
+		}
+	};
+
+	/**
+	 * Longitud en bytes (int) seguida de la cadena en UTF-8.
+	 */
+	ElementCodec<String> STRING = new ElementCodec<String>() {
+
+		@Override
+		public void write(String value, DataOutput out) throws IOException {
+			byte[] b = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+		@Override
+		public String read(ByteBuffer in) {
+			int n = in.getInt();
+			String rx;
+			if (in.hasArray()) {
+				rx = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+			} else {
+				byte[] b = new byte[n];
+				in.get(in.position(), b);
+				rx = new String(b, StandardCharsets.UTF_8);
+			}
+			in.position(in.position() + n);
+			return rx;
+		}
+	};
+
+	/**
+	 * Para los valores de las etiquetas: un byte con el tipo y el valor.
+	 * Admite null, Integer, Long, Double, Boolean y String; cualquier otro
+	 * tipo da IllegalArgumentException al escribir.
+	 */
+	ElementCodec<Object> TAG_VALUES = new ElementCodec<Object>() {
+
+		private static final byte NULL = 0;
+		private static final byte INT = 1;
+		private static final byte LONG = 2;
+		private static final byte DOUBLE = 3;
+		private static final byte BOOLEAN = 4;
+		private static final byte TEXT = 5;
+
+		@Override
+		public void write(Object value, DataOutput out) throws IOException {
+			if (value == null) {
+				out.writeByte(NULL);
+			} else if (value instanceof Integer) {
+				out.writeByte(INT);
+				out.writeInt((Integer) value);
+			} else if (value instanceof Long) {
+				out.writeByte(LONG);
+				out.writeLong((Long) value);
+			} else if (value instanceof Double) {
+				out.writeByte(DOUBLE);
+				out.writeDouble((Double) value);
+			} else if (value instanceof Boolean) {
+				out.writeByte(BOOLEAN);
+				out.writeBoolean((Boolean) value);
+			} else if (value instanceof String) {
+				out.writeByte(TEXT);
+				STRING.write((String) value, out);
+			} else {
+				throw new IllegalArgumentException("unsupported tag value: " + value.getClass().getName());
+			}
+		}
+
+		@Override
+		public Object read(ByteBuffer in) {
+			byte type = in.get();
+			switch (type) {
+			case NULL:
+				return null;
+			case INT:
+				return in.getInt();
+			case LONG:
+				return in.getLong();
+			case DOUBLE:
+				return in.getDouble();
+			case BOOLEAN:
+				return in.get() != 0;
+			case TEXT:
+				return STRING.read(in);
+			default:
+				throw new IllegalStateException("bad tag value type: " + type);
+			}
+		}
+	};
+}
@@ -0,0 +1,461 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Arbol binario de busqueda de claves int sin un objeto por nodo ni boxing.
+ *
+ * Se comporta como un {@link BinarySearchTreeImpl}&lt;Integer&gt; no
+ * equilibrado: es un multiconjunto con un count por elemento, elimina
+ * sustituyendo por el menor de los mayores, y tiene getPath con Ls y Rs, los
+ * recorridos en anchura y el mismo formato de toString.
+ *
+ * Los nodos son posiciones de unos arrays paralelos (clave, count, hijo
+ * izquierdo, hijo derecho y padre) y NIL (-1) hace de arbol vacio. Las
+ * posiciones que dejan libres las eliminaciones se encadenan (por el array
+ * left) y se reutilizan en las siguientes inserciones. Las comparaciones son
+ * de tipos primitivos, sin compareTo.
+ */
+public class IntBinarySearchTree {
+
+	private static final int NIL = -1;
+
+	//	Marcas de la pila de toString, junto a las posiciones de los nodos
+	private static final int EMPTY = -1;
+	private static final int COMMA = -2;
+	private static final int CLOSE = -3;
+
+	private int[] keys;
+	private int[] counts;
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+
+	private int root = NIL;
+	private int free = NIL; // primera posicion libre, NIL si no hay
+	private int used; // posiciones usadas alguna vez; las siguientes estan sin estrenar
+	private int size; // elementos diferentes
+	private long instances; // suma de los count
+	private int modCount; // para que los iteradores fallen si se modifica el arbol
+
+	public IntBinarySearchTree() {
+		this(16);
+	}
+
+	/**
+	 * @param initialCapacity numero de nodos para los que se reserva sitio
+	 * @throws IllegalArgumentException si initialCapacity es negativo
+	 */
+	public IntBinarySearchTree(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("initialCapacity=" + initialCapacity);
+		}
+		int c = Math.max(1, initialCapacity);
+		keys = new int[c];
+		counts = new int[c];
+		left = new int[c];
+		right = new int[c];
+		parent = new int[c];
+	}
+
+	private void grow() {
+		int c = keys.length + (keys.length >> 1) + 1;
+		keys = Arrays.copyOf(keys, c);
+		counts = Arrays.copyOf(counts, c);
+		left = Arrays.copyOf(left, c);
+		right = Arrays.copyOf(right, c);
+		parent = Arrays.copyOf(parent, c);
+	}
+
+	//	Puede hacer crecer los arrays: no se debe llamar dentro de un left[n] = ...
+	private int allocate(int key, int p) {
+		int n;
+		if (free != NIL) {
+			n = free;
+			free = left[n];
+		} else {
+			if (used == keys.length) {
+				grow();
+			}
+			n = used++;
+		}
+		keys[n] = key;
+		counts[n] = 1;
+		left[n] = NIL;
+		right[n] = NIL;
+		parent[n] = p;
+		return n;
+	}
+
+	private void release(int n) {
+		counts[n] = 0;
+		right[n] = NIL;
+		parent[n] = NIL;
+		left[n] = free;
+		free = n;
+	}
+
+	/**
+	 * Inserta una instancia del elemento; si ya estaba, incrementa su count.
+	 *
+	 * @param element valor a insertar.
+	 * @return true si se insertó en un nuevo nodo, false si ya existia
+	 */
+	public boolean insert(int element) {
+		modCount++;
+		instances++;
+		if (root == NIL) {
+			root = allocate(element, NIL);
+			size++;
+			return true;
+		}
+		int n = root;
+		while (true) {
+			int k = keys[n];
+			if (element < k) {
+				if (left[n] == NIL) {
+					int c = allocate(element, n);
+					left[n] = c;
+					break;
+				}
+				n = left[n];
+			} else if (element > k) {
+				if (right[n] == NIL) {
+					int c = allocate(element, n);
+					right[n] = c;
+					break;
+				}
+				n = right[n];
+			} else {
+				counts[n]++;
+				return false;
+			}
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * Inserta todos los elementos, uno a uno.
+	 *
+	 * @return numero de elementos insertados
+	 */
+	public int insert(int... elements) {
+		for (int e : elements) {
+			insert(e);
+		}
+		return elements.length;
+	}
+
+	private int findNode(int element) {
+		int n = root;
+		while (n != NIL) {
+			int k = keys[n];
+			if (element == k) {
+				return n;
+			}
+			n = (element < k) ? left[n] : right[n];
+		}
+		return NIL;
+	}
+
+	public boolean contains(int element) {
+		return findNode(element) != NIL;
+	}
+
+	/**
+	 * Devuelve el número de instancias del elemento, 0 si no está.
+	 */
+	public int count(int element) {
+		int n = findNode(element);
+		return (n == NIL) ? 0 : counts[n];
+	}
+
+	private int existing(int element) {
+		int n = findNode(element);
+		if (n == NIL) {
+			throw new NoSuchElementException();
+		}
+		modCount++;
+		return n;
+	}
+
+	/**
+	 * Elimina una instancia del elemento.
+	 *
+	 * @throws NoSuchElementException si el elemento no está
+	 */
+	public void remove(int element) {
+		remove(element, 1);
+	}
+
+	/**
+	 * Elimina num instancias del elemento; si tiene num o menos, elimina el nodo.
+	 *
+	 * @throws NoSuchElementException si el elemento no está
+	 */
+	public void remove(int element, int num) {
+		int n = existing(element);
+		if (num >= counts[n]) {
+			deleteNode(n);
+		} else {
+			counts[n] -= num;
+			instances -= num;
+		}
+	}
+
+	/**
+	 * Elimina todas las instancias del elemento.
+	 *
+	 * @return número de instancias eliminadas
+	 * @throws NoSuchElementException si el elemento no está
+	 */
+	public int removeAll(int element) {
+		int n = existing(element);
+		int c = counts[n];
+		deleteNode(n);
+		return c;
+	}
+
+	private void deleteNode(int n) {
+		instances -= counts[n];
+		size--;
+		if (left[n] != NIL && right[n] != NIL) {
+			//	Se sustituye por el menor de sus mayores, que no tiene hijo izquierdo
+			int s = right[n];
+			while (left[s] != NIL) {
+				s = left[s];
+			}
+			keys[n] = keys[s];
+			counts[n] = counts[s];
+			n = s;
+		}
+		int child = (left[n] != NIL) ? left[n] : right[n];
+		int p = parent[n];
+		if (child != NIL) {
+			parent[child] = p;
+		}
+		if (p == NIL) {
+			root = child;
+		} else if (left[p] == n) {
+			left[p] = child;
+		} else {
+			right[p] = child;
+		}
+		release(n);
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#getPath(Comparable)
+	 * @throws NoSuchElementException si el elemento no existe
+	 */
+	public String getPath(int element) {
+		StringBuilder camino = new StringBuilder();
+		int n = root;
+		while (n != NIL) {
+			int k = keys[n];
+			if (element == k) {
+				return camino.toString();
+			}
+			if (element < k) {
+				camino.append('L');
+				n = left[n];
+			} else {
+				camino.append('R');
+				n = right[n];
+			}
+		}
+		throw new NoSuchElementException();
+	}
+
+	public boolean isEmpty() {
+		return root == NIL;
+	}
+
+	/**
+	 * Número de elementos diferentes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Número de instancias de todos los elementos.
+	 */
+	public int instancesCount() {
+		return (int) instances;
+	}
+
+	/**
+	 * Recorre en inorden (ascendente) los elementos diferentes, avanzando al
+	 * sucesor con el array parent.
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+
+			private final int expectedModCount = modCount;
+			private int next = first();
+
+			private int first() {
+				int n = root;
+				if (n != NIL) {
+					while (left[n] != NIL) {
+						n = left[n];
+					}
+				}
+				return n;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != NIL;
+			}
+
+			@Override
+			public int nextInt() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (next == NIL) {
+					throw new NoSuchElementException();
+				}
+				int n = next;
+				if (right[n] != NIL) {
+					int s = right[n];
+					while (left[s] != NIL) {
+						s = left[s];
+					}
+					next = s;
+				} else {
+					int c = n;
+					int p = parent[c];
+					while (p != NIL && right[p] == c) {
+						c = p;
+						p = parent[c];
+					}
+					next = p;
+				}
+				return keys[n];
+			}
+		};
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#iteratorWidth()
+	 */
+	public PrimitiveIterator.OfInt iteratorWidth() {
+		return new WidthIterator(false);
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#iteratorWidthInstances()
+	 */
+	public PrimitiveIterator.OfInt iteratorWidthInstances() {
+		return new WidthIterator(true);
+	}
+
+	/**
+	 * Recorrido en anchura. Cada nodo entra una sola vez en la cola, así que
+	 * basta un array de size() posiciones.
+	 */
+	private final class WidthIterator implements PrimitiveIterator.OfInt {
+
+		private final boolean repeat;
+		private final int expectedModCount = modCount;
+		private final int[] cola = new int[Math.max(1, size)];
+		private int head;
+		private int tail;
+		private int current;
+		private int remaining;
+
+		WidthIterator(boolean repeat) {
+			this.repeat = repeat;
+			if (root != NIL) {
+				cola[tail++] = root;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0 || head < tail;
+		}
+
+		@Override
+		public int nextInt() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (remaining > 0) {
+				remaining--;
+				return current;
+			}
+			if (head == tail) {
+				throw new NoSuchElementException();
+			}
+			int n = cola[head++];
+			if (left[n] != NIL) {
+				cola[tail++] = left[n];
+			}
+			if (right[n] != NIL) {
+				cola[tail++] = right[n];
+			}
+			current = keys[n];
+			remaining = repeat ? counts[n] - 1 : 0;
+			return current;
+		}
+	}
+
+	/**
+	 * Escribe el arbol con el formato de {@link #toString()}, de forma iterativa.
+	 *
+	 * @param out destino, por ejemplo un Writer o un StringBuilder.
+	 * @throws IOException si falla la escritura en out.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		int[] pending = new int[16];
+		int top = 0;
+		pending[top++] = (root == NIL) ? EMPTY : root;
+		while (top > 0) {
+			int item = pending[--top];
+			if (item == EMPTY) {
+				out.append(AbstractTreeADT.EMPTY_TREE_MARK);
+			} else if (item == COMMA) {
+				out.append(", ");
+			} else if (item == CLOSE) {
+				out.append('}');
+			} else {
+				out.append('{').append(String.valueOf(keys[item]));
+				if (counts[item] > 1) {
+					out.append('(').append(Integer.toString(counts[item])).append(')');
+				}
+				if (top + 5 > pending.length) {
+					pending = Arrays.copyOf(pending, pending.length * 2);
+				}
+				pending[top++] = CLOSE;
+				pending[top++] = (right[item] == NIL) ? EMPTY : right[item];
+				pending[top++] = COMMA;
+				pending[top++] = (left[item] == NIL) ? EMPTY : left[item];
+				pending[top++] = COMMA;
+			}
+		}
+	}
+
+	/**
+	 * Representa el arbol como {@link BinarySearchTreeImpl#toString()}.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder rx = new StringBuilder();
+		try {
+			writeTo(rx);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return rx.toString();
+	}
+}
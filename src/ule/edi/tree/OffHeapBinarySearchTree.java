@@ -0,0 +1,623 @@
+package ule.edi.tree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Arbol binario de busqueda fuera del heap para claves de tamaño fijo: int,
+ * long o arrays de bytes de longitud fija.
+ *
+ * Los nodos (hijo izquierdo, hijo derecho, padre, count y la clave) se
+ * guardan en bloques de memoria directa ({@link ByteBuffer#allocateDirect})
+ * de como mucho {@link #CHUNK_BYTES} bytes cada uno (tantos nodos como
+ * quepan, en potencia de 2, y al menos uno), así que un arbol de decenas de
+ * millones de claves son unos pocos cientos de objetos para el recolector,
+ * en lugar de un objeto (más la clave y sus sub-árboles) por nodo. Crecer es
+ * añadir un bloque, sin copiar los anteriores; los nodos eliminados se
+ * reutilizan.
+ *
+ * Las claves se guardan en big-endian con el bit de signo invertido, de forma
+ * que el orden de los bytes (sin signo) coincide con el de los números, y
+ * todas las claves se comparan igual, de 8 en 8 bytes. Un arbol de
+ * {@link #ofBytes(int)} ordena sus claves lexicograficamente, byte a byte
+ * sin signo.
+ *
+ * Tiene la semántica de instancias de {@link BinarySearchTreeImpl} (no
+ * equilibrado): insert incrementa el count de una clave que ya está y
+ * remove lo decrementa, eliminando el nodo (sustituido por el menor de sus
+ * mayores) al llegar a 0.
+ *
+ * El arbol se cierra con {@link #close()}: desde ese momento cualquier
+ * operacion lanza IllegalStateException y los bloques dejan de estar
+ * referenciados. En Java 17 la memoria directa la devuelve al sistema el
+ * limpiador de cada ByteBuffer, no la llamada a close. No es seguro para
+ * hilos.
+ */
+public final class OffHeapBinarySearchTree implements AutoCloseable {
+
+	private static final int NIL = -1;
+
+	//	Desplazamientos dentro de cada nodo
+	private static final int LEFT = 0;
+	private static final int RIGHT = 4;
+	private static final int PARENT = 8;
+	private static final int COUNT = 12;
+	private static final int KEY = 16;
+
+	/**
+	 * Tamaño máximo de cada bloque de memoria directa.
+	 */
+	public static final int CHUNK_BYTES = 1 << 20;
+
+	/**
+	 * Longitud maxima de las claves de {@link #ofBytes(int)}.
+	 */
+	public static final int MAX_KEY_WIDTH = 4096;
+
+	private final int keyWidth;
+	private final int nodeSize;
+
+	//	Nodos por bloque: 1 << chunkShift, según lo que ocupa cada nodo
+	private final int chunkShift;
+	private final int chunkMask;
+
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+
+	//	Clave buscada, ya codificada, y un buffer para mover claves entre nodos
+	private final byte[] probe;
+	private final ByteBuffer probeBuffer;
+	private final byte[] moved;
+
+	private int root = NIL;
+	private int free = NIL; // primer nodo libre, encadenados por LEFT
+	private int used; // nodos usados alguna vez
+	private int size;
+	private long instances;
+	private int modCount;
+	private boolean closed;
+
+	private OffHeapBinarySearchTree(int keyWidth) {
+		this.keyWidth = keyWidth;
+		this.nodeSize = KEY + keyWidth;
+		this.chunkShift = 31 - Integer.numberOfLeadingZeros(Math.max(1, CHUNK_BYTES / nodeSize));
+		this.chunkMask = (1 << chunkShift) - 1;
+		this.probe = new byte[keyWidth];
+		this.probeBuffer = ByteBuffer.wrap(probe);
+		this.moved = new byte[keyWidth];
+	}
+
+	/**
+	 * Crea un arbol vacio de claves int.
+	 */
+	public static OffHeapBinarySearchTree ofInts() {
+		return new OffHeapBinarySearchTree(Integer.BYTES);
+	}
+
+	/**
+	 * Crea un arbol vacio de claves long.
+	 */
+	public static OffHeapBinarySearchTree ofLongs() {
+		return new OffHeapBinarySearchTree(Long.BYTES);
+	}
+
+	/**
+	 * Crea un arbol vacio de claves de keyWidth bytes.
+	 *
+	 * @throws IllegalArgumentException si keyWidth no está entre 1 y MAX_KEY_WIDTH
+	 */
+	public static OffHeapBinarySearchTree ofBytes(int keyWidth) {
+		if (keyWidth < 1 || keyWidth > MAX_KEY_WIDTH) {
+			throw new IllegalArgumentException("keyWidth=" + keyWidth);
+		}
+		return new OffHeapBinarySearchTree(keyWidth);
+	}
+
+	/**
+	 * Longitud en bytes de las claves.
+	 */
+	public int keyWidth() {
+		return keyWidth;
+	}
+
+	//	Acceso a los nodos
+
+	private ByteBuffer chunk(int n) {
+		return chunks[n >>> chunkShift];
+	}
+
+	private int offset(int n) {
+		return (n & chunkMask) * nodeSize;
+	}
+
+	private int get(int n, int field) {
+		return chunk(n).getInt(offset(n) + field);
+	}
+
+	private void set(int n, int field, int value) {
+		chunk(n).putInt(offset(n) + field, value);
+	}
+
+	private void ensureOpen() {
+		if (closed) {
+			throw new IllegalStateException("tree is closed");
+		}
+	}
+
+	//	Codificacion de la clave buscada en probe
+
+	private void probe(int key) {
+		ensureOpen();
+		if (keyWidth != Integer.BYTES) {
+			throw new IllegalArgumentException("int key in a tree of " + keyWidth + "-byte keys");
+		}
+		probeBuffer.putInt(0, key ^ Integer.MIN_VALUE);
+	}
+
+	private void probe(long key) {
+		ensureOpen();
+		if (keyWidth != Long.BYTES) {
+			throw new IllegalArgumentException("long key in a tree of " + keyWidth + "-byte keys");
+		}
+		probeBuffer.putLong(0, key ^ Long.MIN_VALUE);
+	}
+
+	private void probe(byte[] key) {
+		ensureOpen();
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		if (key.length != keyWidth) {
+			throw new IllegalArgumentException(key.length + "-byte key in a tree of " + keyWidth + "-byte keys");
+		}
+		System.arraycopy(key, 0, probe, 0, keyWidth);
+	}
+
+	//	Compara la clave buscada con la del nodo n, como compareTo
+	private int compareProbe(int n) {
+		ByteBuffer b = chunk(n);
+		int off = offset(n) + KEY;
+		int i = 0;
+		for (; i + Long.BYTES <= keyWidth; i += Long.BYTES) {
+			int c = Long.compareUnsigned(probeBuffer.getLong(i), b.getLong(off + i));
+			if (c != 0) {
+				return c;
+			}
+		}
+		if (i + Integer.BYTES <= keyWidth) {
+			int c = Integer.compareUnsigned(probeBuffer.getInt(i), b.getInt(off + i));
+			if (c != 0) {
+				return c;
+			}
+			i += Integer.BYTES;
+		}
+		for (; i < keyWidth; i++) {
+			int c = Integer.compare(probe[i] & 0xff, b.get(off + i) & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	private int allocate(int p) {
+		int n;
+		if (free != NIL) {
+			n = free;
+			free = get(n, LEFT);
+		} else {
+			if (used == chunks.length << chunkShift) {
+				chunks = Arrays.copyOf(chunks, chunks.length + 1);
+				chunks[chunks.length - 1] = ByteBuffer.allocateDirect(nodeSize << chunkShift);
+			}
+			n = used++;
+		}
+		set(n, LEFT, NIL);
+		set(n, RIGHT, NIL);
+		set(n, PARENT, p);
+		set(n, COUNT, 1);
+		chunk(n).put(offset(n) + KEY, probe);
+		return n;
+	}
+
+	private void release(int n) {
+		set(n, COUNT, 0);
+		set(n, LEFT, free);
+		free = n;
+	}
+
+	//	Operaciones sobre la clave que hay en probe
+
+	private boolean insertProbe() {
+		modCount++;
+		instances++;
+		if (root == NIL) {
+			root = allocate(NIL);
+			size++;
+			return true;
+		}
+		int n = root;
+		while (true) {
+			int cmp = compareProbe(n);
+			if (cmp == 0) {
+				set(n, COUNT, get(n, COUNT) + 1);
+				return false;
+			}
+			int field = (cmp < 0) ? LEFT : RIGHT;
+			int child = get(n, field);
+			if (child == NIL) {
+				set(n, field, allocate(n));
+				size++;
+				return true;
+			}
+			n = child;
+		}
+	}
+
+	private int findProbe() {
+		int n = root;
+		while (n != NIL) {
+			int cmp = compareProbe(n);
+			if (cmp == 0) {
+				return n;
+			}
+			n = get(n, (cmp < 0) ? LEFT : RIGHT);
+		}
+		return NIL;
+	}
+
+	private int countProbe() {
+		int n = findProbe();
+		return (n == NIL) ? 0 : get(n, COUNT);
+	}
+
+	//	Quita num instancias (todas si num >= count); devuelve las quitadas
+	private int removeProbe(int num) {
+		int n = findProbe();
+		if (n == NIL) {
+			throw new NoSuchElementException();
+		}
+		modCount++;
+		int count = get(n, COUNT);
+		if (num < count) {
+			set(n, COUNT, count - num);
+			instances -= num;
+			return num;
+		}
+		deleteNode(n);
+		return count;
+	}
+
+	private void deleteNode(int n) {
+		instances -= get(n, COUNT);
+		size--;
+		if (get(n, LEFT) != NIL && get(n, RIGHT) != NIL) {
+			//	Se sustituye por el menor de sus mayores, que no tiene hijo izquierdo
+			int s = get(n, RIGHT);
+			for (int l = get(s, LEFT); l != NIL; l = get(s, LEFT)) {
+				s = l;
+			}
+			chunk(s).get(offset(s) + KEY, moved);
+			chunk(n).put(offset(n) + KEY, moved);
+			set(n, COUNT, get(s, COUNT));
+			n = s;
+		}
+		int child = (get(n, LEFT) != NIL) ? get(n, LEFT) : get(n, RIGHT);
+		int p = get(n, PARENT);
+		if (child != NIL) {
+			set(child, PARENT, p);
+		}
+		if (p == NIL) {
+			root = child;
+		} else if (get(p, LEFT) == n) {
+			set(p, LEFT, child);
+		} else {
+			set(p, RIGHT, child);
+		}
+		release(n);
+	}
+
+	//	API por tipo de clave
+
+	/**
+	 * Inserta una instancia de la clave.
+	 *
+	 * @return true si se insertó en un nuevo nodo, false si ya estaba
+	 * @throws IllegalArgumentException si el arbol no es de claves int
+	 */
+	public boolean insert(int key) {
+		probe(key);
+		return insertProbe();
+	}
+
+	/**
+	 * @see #insert(int)
+	 */
+	public boolean insert(long key) {
+		probe(key);
+		return insertProbe();
+	}
+
+	/**
+	 * @see #insert(int)
+	 */
+	public boolean insert(byte[] key) {
+		probe(key);
+		return insertProbe();
+	}
+
+	public boolean contains(int key) {
+		probe(key);
+		return findProbe() != NIL;
+	}
+
+	public boolean contains(long key) {
+		probe(key);
+		return findProbe() != NIL;
+	}
+
+	public boolean contains(byte[] key) {
+		probe(key);
+		return findProbe() != NIL;
+	}
+
+	/**
+	 * Devuelve el número de instancias de la clave, 0 si no está.
+	 */
+	public int count(int key) {
+		probe(key);
+		return countProbe();
+	}
+
+	/**
+	 * @see #count(int)
+	 */
+	public int count(long key) {
+		probe(key);
+		return countProbe();
+	}
+
+	/**
+	 * @see #count(int)
+	 */
+	public int count(byte[] key) {
+		probe(key);
+		return countProbe();
+	}
+
+	/**
+	 * Elimina una instancia de la clave.
+	 *
+	 * @throws NoSuchElementException si la clave no está
+	 */
+	public void remove(int key) {
+		probe(key);
+		removeProbe(1);
+	}
+
+	/**
+	 * @see #remove(int)
+	 */
+	public void remove(long key) {
+		probe(key);
+		removeProbe(1);
+	}
+
+	/**
+	 * @see #remove(int)
+	 */
+	public void remove(byte[] key) {
+		probe(key);
+		removeProbe(1);
+	}
+
+	/**
+	 * Elimina num instancias de la clave; si tiene num o menos, elimina el nodo.
+	 *
+	 * @throws NoSuchElementException si la clave no está
+	 */
+	public void remove(int key, int num) {
+		probe(key);
+		removeProbe(num);
+	}
+
+	/**
+	 * @see #remove(int, int)
+	 */
+	public void remove(long key, int num) {
+		probe(key);
+		removeProbe(num);
+	}
+
+	/**
+	 * @see #remove(int, int)
+	 */
+	public void remove(byte[] key, int num) {
+		probe(key);
+		removeProbe(num);
+	}
+
+	/**
+	 * Elimina todas las instancias de la clave.
+	 *
+	 * @return número de instancias eliminadas
+	 * @throws NoSuchElementException si la clave no está
+	 */
+	public int removeAll(int key) {
+		probe(key);
+		return removeProbe(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @see #removeAll(int)
+	 */
+	public int removeAll(long key) {
+		probe(key);
+		return removeProbe(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @see #removeAll(int)
+	 */
+	public int removeAll(byte[] key) {
+		probe(key);
+		return removeProbe(Integer.MAX_VALUE);
+	}
+
+	public boolean isEmpty() {
+		ensureOpen();
+		return root == NIL;
+	}
+
+	/**
+	 * Número de claves diferentes.
+	 */
+	public int size() {
+		ensureOpen();
+		return size;
+	}
+
+	/**
+	 * Número de instancias de todas las claves; es long porque con decenas
+	 * de millones de claves la suma puede no caber en un int.
+	 */
+	public long instancesCount() {
+		ensureOpen();
+		return instances;
+	}
+
+	/**
+	 * Bytes de memoria directa reservados: los bloques enteros, así que como
+	 * mucho {@link #CHUNK_BYTES} más de lo que ocupan los nodos usados.
+	 */
+	public long reservedBytes() {
+		return ((long) chunks.length << chunkShift) * nodeSize;
+	}
+
+	/**
+	 * Cierra el arbol y suelta sus bloques de memoria. Se puede llamar más
+	 * de una vez.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		chunks = new ByteBuffer[0];
+		root = NIL;
+		free = NIL;
+		used = 0;
+		size = 0;
+		instances = 0;
+		modCount++;
+	}
+
+	//	Recorridos en inorden
+
+	/**
+	 * Recorrido inorden por posiciones de nodo, avanzando con PARENT.
+	 */
+	private abstract class NodeIterator {
+
+		private final int expectedModCount = modCount;
+		private int next;
+
+		NodeIterator() {
+			ensureOpen();
+			int n = root;
+			if (n != NIL) {
+				for (int l = get(n, LEFT); l != NIL; l = get(n, LEFT)) {
+					n = l;
+				}
+			}
+			next = n;
+		}
+
+		public boolean hasNext() {
+			return next != NIL;
+		}
+
+		int nextNode() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next == NIL) {
+				throw new NoSuchElementException();
+			}
+			int n = next;
+			int s = get(n, RIGHT);
+			if (s != NIL) {
+				for (int l = get(s, LEFT); l != NIL; l = get(s, LEFT)) {
+					s = l;
+				}
+				next = s;
+			} else {
+				int c = n;
+				int p = get(c, PARENT);
+				while (p != NIL && get(p, RIGHT) == c) {
+					c = p;
+					p = get(c, PARENT);
+				}
+				next = p;
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Recorre las claves int diferentes en orden ascendente.
+	 *
+	 * @throws IllegalArgumentException si el arbol no es de claves int
+	 */
+	public PrimitiveIterator.OfInt intIterator() {
+		if (keyWidth != Integer.BYTES) {
+			throw new IllegalArgumentException("not an int tree");
+		}
+		class Ints extends NodeIterator implements PrimitiveIterator.OfInt {
+			@Override
+			public int nextInt() {
+				int n = nextNode();
+				return chunk(n).getInt(offset(n) + KEY) ^ Integer.MIN_VALUE;
+			}
+		}
+		return new Ints();
+	}
+
+	/**
+	 * Recorre las claves long diferentes en orden ascendente.
+	 *
+	 * @throws IllegalArgumentException si el arbol no es de claves long
+	 */
+	public PrimitiveIterator.OfLong longIterator() {
+		if (keyWidth != Long.BYTES) {
+			throw new IllegalArgumentException("not a long tree");
+		}
+		class Longs extends NodeIterator implements PrimitiveIterator.OfLong {
+			@Override
+			public long nextLong() {
+				int n = nextNode();
+				return chunk(n).getLong(offset(n) + KEY) ^ Long.MIN_VALUE;
+			}
+		}
+		return new Longs();
+	}
+
+	/**
+	 * Recorre las claves diferentes en orden ascendente, como arrays de
+	 * keyWidth() bytes (uno nuevo por clave). Para claves int o long son los
+	 * bytes codificados (big-endian con el signo invertido).
+	 */
+	public Iterator<byte[]> bytesIterator() {
+		class Bytes extends NodeIterator implements Iterator<byte[]> {
+			@Override
+			public byte[] next() {
+				int n = nextNode();
+				byte[] rx = new byte[keyWidth];
+				chunk(n).get(offset(n) + KEY, rx);
+				return rx;
+			}
+		}
+		return new Bytes();
+	}
+}
@@ -0,0 +1,482 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Arbol binario de busqueda persistente: los nodos son inmutables y cada
+ * version comparte con las anteriores todo lo que no ha cambiado.
+ *
+ * {@link #snapshot()} es O(1), solo copia la referencia a la raiz. insert,
+ * remove y setTag crean nodos nuevos únicamente para el camino desde la
+ * raiz hasta el nodo modificado (O(h), más las rotaciones en modo
+ * equilibrado); el resto de nodos se comparten, así que una instantanea
+ * antigua sigue siendo legible y no ve los cambios posteriores. El count y
+ * las etiquetas de cada elemento forman parte del nodo y se guardan por
+ * version.
+ *
+ * Los elementos, sus instancias, el criterio de eliminacion (el menor de los
+ * mayores) y el formato de {@link #toString()} son los de
+ * {@link BinarySearchTreeImpl}. Como los nodos se comparten no hay enlaces
+ * father: todas las operaciones bajan desde la raiz.
+ *
+ * @param <T> tipo de los elementos, comparable.
+ */
+public class PersistentBinarySearchTree<T extends Comparable<? super T>> implements Iterable<T> {
+
+	/**
+	 * Nodo inmutable; null representa el arbol vacio.
+	 */
+	private static final class Node<T> {
+
+		final T content;
+		final int count;
+		final Map<String, Object> tags; // null si no tiene
+		final Node<T> left;
+		final Node<T> right;
+		final int height;
+		final int size;
+		final long instances;
+
+		Node(T content, int count, Map<String, Object> tags, Node<T> left, Node<T> right) {
+			this.content = content;
+			this.count = count;
+			this.tags = tags;
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(heightOf(left), heightOf(right));
+			this.size = 1 + sizeOf(left) + sizeOf(right);
+			this.instances = count + instancesOf(left) + instancesOf(right);
+		}
+
+		//	Mismo elemento, count y etiquetas con otros hijos
+		Node<T> with(Node<T> l, Node<T> r) {
+			return (l == left && r == right) ? this : new Node<T>(content, count, tags, l, r);
+		}
+	}
+
+	private static int heightOf(Node<?> n) {
+		return (n == null) ? 0 : n.height;
+	}
+
+	private static int sizeOf(Node<?> n) {
+		return (n == null) ? 0 : n.size;
+	}
+
+	private static long instancesOf(Node<?> n) {
+		return (n == null) ? 0 : n.instances;
+	}
+
+	/**
+	 * Array de n nodos vacío. Java no crea arrays de un tipo genérico; este
+	 * solo guarda nodos de T y no sale de la clase, así que el cast es seguro.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Node<T>[] nodes(int n) {
+		return (Node<T>[]) new Node<?>[n];
+	}
+
+	private final boolean balanced;
+	private Node<T> root;
+
+	public PersistentBinarySearchTree() {
+		this(false);
+	}
+
+	/**
+	 * @param balanced si es cierto, se reequilibra (AVL) al insertar y eliminar
+	 */
+	public PersistentBinarySearchTree(boolean balanced) {
+		this(balanced, null);
+	}
+
+	private PersistentBinarySearchTree(boolean balanced, Node<T> root) {
+		this.balanced = balanced;
+		this.root = root;
+	}
+
+	/**
+	 * Devuelve una instantanea de esta version en O(1). La instantanea y este
+	 * arbol comparten los nodos, pero a partir de aqui cada uno evoluciona por
+	 * separado: los cambios en uno no se ven en el otro.
+	 */
+	public PersistentBinarySearchTree<T> snapshot() {
+		return new PersistentBinarySearchTree<T>(balanced, root);
+	}
+
+	public boolean isBalanced() {
+		return balanced;
+	}
+
+	//	Reequilibrado AVL sin modificar nodos: cada rotacion crea los suyos
+
+	private Node<T> rotateRight(Node<T> n) {
+		Node<T> l = n.left;
+		return l.with(l.left, n.with(l.right, n.right));
+	}
+
+	private Node<T> rotateLeft(Node<T> n) {
+		Node<T> r = n.right;
+		return r.with(n.with(n.left, r.left), r.right);
+	}
+
+	private Node<T> balance(Node<T> n) {
+		if (!balanced || n == null) {
+			return n;
+		}
+		int bf = heightOf(n.left) - heightOf(n.right);
+		if (bf > 1) {
+			if (heightOf(n.left.left) < heightOf(n.left.right)) {
+				n = n.with(rotateLeft(n.left), n.right);
+			}
+			return rotateRight(n);
+		}
+		if (bf < -1) {
+			if (heightOf(n.right.right) < heightOf(n.right.left)) {
+				n = n.with(n.left, rotateRight(n.right));
+			}
+			return rotateLeft(n);
+		}
+		return n;
+	}
+
+	/**
+	 * Copia el camino hasta el hueco o el nodo de element: op recibe ese nodo
+	 * (o null) y devuelve el sub-arbol que lo sustituye, y los antecesores se
+	 * recrean (y reequilibran) de abajo arriba. Es iterativo.
+	 */
+	private void update(T element, UnaryOperator<Node<T>> op) {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+		Node<T>[] path = nodes(heightOf(root));
+		boolean[] right = new boolean[path.length];
+		int depth = 0;
+		Node<T> node = root;
+		while (node != null) {
+			int cmp = element.compareTo(node.content);
+			if (cmp == 0) {
+				break;
+			}
+			path[depth] = node;
+			right[depth] = cmp > 0;
+			depth++;
+			node = (cmp < 0) ? node.left : node.right;
+		}
+		Node<T> child = op.apply(node);
+		if (child == node) {
+			return;
+		}
+		for (int i = depth - 1; i >= 0; i--) {
+			Node<T> p = path[i];
+			child = balance(right[i] ? p.with(p.left, child) : p.with(child, p.right));
+		}
+		root = child;
+	}
+
+	/**
+	 * Quita el menor elemento del sub-arbol n, devolviendo el sub-arbol
+	 * resultante; el nodo quitado queda en min[0].
+	 */
+	private Node<T> removeMin(Node<T> n, Node<T>[] min) {
+		Deque<Node<T>> path = new ArrayDeque<Node<T>>();
+		while (n.left != null) {
+			path.push(n);
+			n = n.left;
+		}
+		min[0] = n;
+		Node<T> child = n.right;
+		while (!path.isEmpty()) {
+			Node<T> p = path.pop();
+			child = balance(p.with(child, p.right));
+		}
+		return child;
+	}
+
+	//	Sub-arbol que queda al eliminar el nodo n con todas sus instancias
+	private Node<T> delete(Node<T> n) {
+		if (n.left == null) {
+			return n.right;
+		}
+		if (n.right == null) {
+			return n.left;
+		}
+		//	Se sustituye por el menor de sus mayores, con su count y etiquetas
+		Node<T>[] min = nodes(1);
+		Node<T> r = removeMin(n.right, min);
+		return balance(new Node<T>(min[0].content, min[0].count, min[0].tags, n.left, r));
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#insert(Comparable)
+	 */
+	public boolean insert(T element) {
+		boolean[] nuevo = new boolean[1];
+		update(element, n -> {
+			if (n == null) {
+				nuevo[0] = true;
+				return new Node<T>(element, 1, null, null, null);
+			}
+			return new Node<T>(n.content, n.count + 1, n.tags, n.left, n.right);
+		});
+		return nuevo[0];
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#insert(Comparable...)
+	 */
+	@SafeVarargs
+	public final int insert(T... elements) {
+		int rx = 0;
+		for (T e : elements) {
+			if (e != null) {
+				insert(e);
+				rx++;
+			}
+		}
+		return rx;
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#remove(Comparable)
+	 */
+	public void remove(T element) {
+		remove(element, 1);
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#remove(Comparable, int)
+	 */
+	public void remove(T element, int num) {
+		update(element, n -> {
+			if (n == null) {
+				throw new NoSuchElementException();
+			}
+			if (num >= n.count) {
+				return delete(n);
+			}
+			return new Node<T>(n.content, n.count - num, n.tags, n.left, n.right);
+		});
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#removeAll(Comparable)
+	 */
+	public int removeAll(T element) {
+		int[] count = new int[1];
+		update(element, n -> {
+			if (n == null) {
+				throw new NoSuchElementException();
+			}
+			count[0] = n.count;
+			return delete(n);
+		});
+		return count[0];
+	}
+
+	/**
+	 * Asigna una etiqueta al nodo del elemento, solo en esta version.
+	 *
+	 * @throws NoSuchElementException si el elemento no está
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public void setTag(T element, String key, Object value) {
+		update(element, n -> {
+			if (n == null) {
+				throw new NoSuchElementException();
+			}
+			Map<String, Object> tags;
+			if (n.tags == null) {
+				tags = new SmallTagMap();
+			} else if (n.tags.size() >= SmallTagMap.CAPACITY && !n.tags.containsKey(key)) {
+				tags = new HashMap<String, Object>(n.tags);
+			} else {
+				tags = (n.tags instanceof SmallTagMap) ? new SmallTagMap(n.tags)
+						: new HashMap<String, Object>(n.tags);
+			}
+			tags.put(key, value);
+			return new Node<T>(n.content, n.count, tags, n.left, n.right);
+		});
+	}
+
+	//	Consultas
+
+	private Node<T> find(T element) {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+		Node<T> node = root;
+		while (node != null) {
+			int cmp = element.compareTo(node.content);
+			if (cmp == 0) {
+				return node;
+			}
+			node = (cmp < 0) ? node.left : node.right;
+		}
+		return null;
+	}
+
+	public boolean contains(T element) {
+		return find(element) != null;
+	}
+
+	/**
+	 * Devuelve el número de instancias del elemento, 0 si no está.
+	 */
+	public int count(T element) {
+		Node<T> n = find(element);
+		return (n == null) ? 0 : n.count;
+	}
+
+	/**
+	 * Devuelve el valor de la etiqueta del elemento en esta version, null si
+	 * no la tiene.
+	 *
+	 * @throws NoSuchElementException si el elemento no está
+	 */
+	public Object getTag(T element, String key) {
+		Map<String, Object> tags = getTags(element);
+		return tags.get(key);
+	}
+
+	/**
+	 * Devuelve las etiquetas (no modificables) del elemento en esta version.
+	 *
+	 * @throws NoSuchElementException si el elemento no está
+	 */
+	public Map<String, Object> getTags(T element) {
+		Node<T> n = find(element);
+		if (n == null) {
+			throw new NoSuchElementException();
+		}
+		return (n.tags == null) ? Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(n.tags);
+	}
+
+	/**
+	 * @see BinarySearchTreeImpl#getPath(Comparable)
+	 */
+	public String getPath(T element) {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+		StringBuilder camino = new StringBuilder(heightOf(root));
+		Node<T> node = root;
+		while (node != null) {
+			int cmp = element.compareTo(node.content);
+			if (cmp == 0) {
+				return camino.toString();
+			}
+			camino.append((cmp < 0) ? 'L' : 'R');
+			node = (cmp < 0) ? node.left : node.right;
+		}
+		throw new NoSuchElementException();
+	}
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	public int size() {
+		return sizeOf(root);
+	}
+
+	public int instancesCount() {
+		return (int) instancesOf(root);
+	}
+
+	public int height() {
+		return heightOf(root);
+	}
+
+	/**
+	 * Recorre en inorden los elementos diferentes de esta version. Como los
+	 * nodos no cambian, el iterador no se ve afectado por modificaciones
+	 * posteriores del arbol.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+
+			private final Deque<Node<T>> pending = new ArrayDeque<Node<T>>();
+
+			{
+				pushLeft(root);
+			}
+
+			private void pushLeft(Node<T> n) {
+				for (; n != null; n = n.left) {
+					pending.push(n);
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !pending.isEmpty();
+			}
+
+			@Override
+			public T next() {
+				if (pending.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Node<T> n = pending.pop();
+				pushLeft(n.right);
+				return n.content;
+			}
+		};
+	}
+
+	/**
+	 * Escribe esta version con el formato de {@link #toString()}, de forma
+	 * iterativa.
+	 *
+	 * @param out destino, por ejemplo un Writer o un StringBuilder.
+	 * @throws IOException si falla la escritura en out.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		//	Pila de nodos pendientes y de separadores; un vacio se apila ya como "∅"
+		Deque<Object> pending = new ArrayDeque<Object>();
+		pending.push((root == null) ? AbstractTreeADT.EMPTY_TREE_MARK : root);
+		while (!pending.isEmpty()) {
+			Object item = pending.pop();
+			if (item instanceof String) {
+				out.append((String) item);
+				continue;
+			}
+			@SuppressWarnings("unchecked")
+			Node<T> n = (Node<T>) item;
+			out.append('{').append(String.valueOf(n.content));
+			if (n.count > 1) {
+				out.append('(').append(Integer.toString(n.count)).append(')');
+			}
+			AbstractTreeADT.writeTags(out, n.tags);
+			pending.push("}");
+			pending.push((n.right == null) ? AbstractTreeADT.EMPTY_TREE_MARK : n.right);
+			pending.push(", ");
+			pending.push((n.left == null) ? AbstractTreeADT.EMPTY_TREE_MARK : n.left);
+			pending.push(", ");
+		}
+	}
+
+	/**
+	 * Representa esta version como {@link BinarySearchTreeImpl#toString()}.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder rx = new StringBuilder();
+		try {
+			writeTo(rx);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return rx.toString();
+	}
+}
@@ -0,0 +1,164 @@
+package ule.edi.tree;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Mapa de etiquetas compacto para nodos con pocas etiquetas.
+ *
+ * Guarda claves y valores en dos arrays paralelos y busca de forma
+ * lineal, lo que para una a cuatro etiquetas es mas rapido y ocupa mucho
+ * menos que un HashMap (sin tabla ni una entrada por par).
+ *
+ * {@link AbstractTreeADT#setTag(String, Object)} lo sustituye por un
+ * HashMap al superar {@link #CAPACITY} etiquetas; si se llena por otra via
+ * (por ejemplo con getTags().put(...)) simplemente crece.
+ */
+final class SmallTagMap extends AbstractMap<String, Object> {
+
+	//	Numero de etiquetas a partir del cual compensa un HashMap
+	static final int CAPACITY = 4;
+
+	private String[] keys = new String[CAPACITY];
+	private Object[] values = new Object[CAPACITY];
+	private int size;
+
+	SmallTagMap() {
+	}
+
+	SmallTagMap(Map<String, Object> m) {
+		for (Map.Entry<String, Object> e : m.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+
+	private int indexOf(Object key) {
+		for (int i = 0; i < size; i++) {
+			if (Objects.equals(keys[i], key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int i = indexOf(key);
+		return (i < 0) ? null : values[i];
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int i = indexOf(key);
+		if (i >= 0) {
+			Object old = values[i];
+			values[i] = value;
+			return old;
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		Object old = values[i];
+		removeAt(i);
+		return old;
+	}
+
+	private void removeAt(int i) {
+		size--;
+		keys[i] = keys[size];
+		values[i] = values[size];
+		keys[size] = null;
+		values[size] = null;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new Iterator<Map.Entry<String, Object>>() {
+
+					private int next = 0;
+					private int last = -1;
+
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					@Override
+					public Map.Entry<String, Object> next() {
+						if (next >= size) {
+							throw new NoSuchElementException();
+						}
+						last = next++;
+						final int i = last;
+						return new AbstractMap.SimpleEntry<String, Object>(keys[i], values[i]) {
+
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							public Object setValue(Object value) {
+								values[i] = value;
+								return super.setValue(value);
+							}
+						};
+					}
+
+					@Override
+					public void remove() {
+						if (last < 0) {
+							throw new IllegalStateException();
+						}
+						//	El ultimo par pasa al hueco, que hay que volver a visitar
+						removeAt(last);
+						next = last;
+						last = -1;
+					}
+				};
+			}
+		};
+	}
+}
@@ -0,0 +1,244 @@
+package ule.edi.tree;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Acumula las medidas de la instrumentación de {@link BinarySearchTreeImpl}
+ * (comparaciones, nodos recorridos, sub-arboles vacios reservados e
+ * histogramas de profundidad por tipo de operación) y las publica por JMX
+ * como {@link TreeMetricsMXBean}.
+ *
+ * Por defecto la instrumentación está desactivada y no cuesta nada más que
+ * leer un campo volatile por operación. {@link #enable()} la activa para
+ * todos los arboles y {@link #disable()} la vuelve a quitar:
+ * <pre>
+ *   TreeMetrics metrics = TreeMetrics.enable();
+ *   ...
+ *   metrics.getMaxDepth();
+ *   TreeMetrics.disable();
+ * </pre>
+ *
+ * Los contadores son {@link LongAdder}s, así que se pueden actualizar
+ * desde muchos hilos a la vez sin apenas contención.
+ */
+public class TreeMetrics implements TreeMetricsListener, TreeMetricsMXBean {
+
+	public static final String OBJECT_NAME = "ule.edi.tree:type=TreeMetrics";
+
+	/**
+	 * Cubos de los histogramas de profundidad; ver {@link TreeMetricsMXBean}.
+	 */
+	public static final int BUCKETS = 32;
+
+	//	Instancia activa, o null
+	private static TreeMetrics enabled;
+
+	/**
+	 * Contadores de un tipo de operación.
+	 */
+	private static final class Counters {
+
+		final LongAdder operations = new LongAdder();
+		final LongAdder comparisons = new LongAdder();
+		final LongAdder visited = new LongAdder();
+		final LongAdder depths = new LongAdder();
+		final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+		final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		void reset() {
+			operations.reset();
+			comparisons.reset();
+			visited.reset();
+			depths.reset();
+			maxDepth.reset();
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram.set(i, 0);
+			}
+		}
+	}
+
+	private final Map<Operation, Counters> counters = new EnumMap<Operation, Counters>(Operation.class);
+	private final LongAdder emptySubtrees = new LongAdder();
+
+	public TreeMetrics() {
+		for (Operation op : Operation.values()) {
+			counters.put(op, new Counters());
+		}
+	}
+
+	/**
+	 * Activa la instrumentación de todos los arboles con una instancia nueva
+	 * y la registra en el servidor MBean de la plataforma; si ya estaba
+	 * activa, devuelve la que había.
+	 *
+	 * @throws IllegalStateException si no se puede registrar el MXBean
+	 */
+	public static synchronized TreeMetrics enable() {
+		if (enabled == null) {
+			TreeMetrics metrics = new TreeMetrics();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(metrics, name);
+			} catch (JMException e) {
+				throw new IllegalStateException(e);
+			}
+			enabled = metrics;
+			BinarySearchTreeImpl.setMetricsListener(metrics);
+		}
+		return enabled;
+	}
+
+	/**
+	 * Desactiva la instrumentación y quita el MXBean.
+	 */
+	public static synchronized void disable() {
+		if (enabled == null) {
+			return;
+		}
+		BinarySearchTreeImpl.setMetricsListener(null);
+		enabled = null;
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Cubo del histograma para una profundidad.
+	 */
+	static int bucket(int depth) {
+		return Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(depth));
+	}
+
+	// TreeMetricsListener
+
+	@Override
+	public void operation(Operation op, int comparisons, int nodesVisited, int depth) {
+		Counters c = counters.get(op);
+		c.operations.increment();
+		c.comparisons.add(comparisons);
+		c.visited.add(nodesVisited);
+		c.depths.add(depth);
+		c.maxDepth.accumulate(depth);
+		c.histogram.incrementAndGet(bucket(depth));
+	}
+
+	@Override
+	public void emptySubtreeAllocated() {
+		emptySubtrees.increment();
+	}
+
+	// TreeMetricsMXBean
+
+	@Override
+	public long getOperations() {
+		long rx = 0;
+		for (Counters c : counters.values()) {
+			rx += c.operations.sum();
+		}
+		return rx;
+	}
+
+	@Override
+	public Map<String, Long> getOperationsByType() {
+		Map<String, Long> rx = new LinkedHashMap<String, Long>();
+		for (Map.Entry<Operation, Counters> e : counters.entrySet()) {
+			rx.put(e.getKey().name(), e.getValue().operations.sum());
+		}
+		return rx;
+	}
+
+	@Override
+	public long getComparisons() {
+		long rx = 0;
+		for (Counters c : counters.values()) {
+			rx += c.comparisons.sum();
+		}
+		return rx;
+	}
+
+	@Override
+	public long getNodesVisited() {
+		long rx = 0;
+		for (Counters c : counters.values()) {
+			rx += c.visited.sum();
+		}
+		return rx;
+	}
+
+	@Override
+	public long getEmptySubtreeAllocations() {
+		return emptySubtrees.sum();
+	}
+
+	@Override
+	public int getMaxDepth() {
+		long rx = 0;
+		for (Counters c : counters.values()) {
+			rx = Math.max(rx, c.maxDepth.get());
+		}
+		return (int) rx;
+	}
+
+	@Override
+	public double getMeanDepth() {
+		long ops = 0;
+		long depths = 0;
+		for (Counters c : counters.values()) {
+			ops += c.operations.sum();
+			depths += c.depths.sum();
+		}
+		return (ops == 0) ? 0 : (double) depths / ops;
+	}
+
+	@Override
+	public long[] getDepthHistogram() {
+		long[] rx = new long[BUCKETS];
+		for (Counters c : counters.values()) {
+			for (int i = 0; i < BUCKETS; i++) {
+				rx[i] += c.histogram.get(i);
+			}
+		}
+		return rx;
+	}
+
+	@Override
+	public long[] getDepthHistogramOf(String operation) {
+		if (operation == null) {
+			throw new IllegalArgumentException();
+		}
+		Counters c = counters.get(Operation.valueOf(operation));
+		long[] rx = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			rx[i] = c.histogram.get(i);
+		}
+		return rx;
+	}
+
+	@Override
+	public void reset() {
+		for (Counters c : counters.values()) {
+			c.reset();
+		}
+		emptySubtrees.reset();
+	}
+}
@@ -0,0 +1,42 @@
+package ule.edi.tree;
+
+/**
+ * Recibe las medidas de la instrumentación opcional de
+ * {@link BinarySearchTreeImpl}; se activa con
+ * {@link BinarySearchTreeImpl#setMetricsListener(TreeMetricsListener)}.
+ *
+ * Se llama desde el hilo que hace la operación, justo al terminarla, así
+ * que tiene que ser rápido y seguro para hilos. {@link TreeMetrics} acumula
+ * las medidas y las publica por JMX.
+ */
+public interface TreeMetricsListener {
+
+	/**
+	 * Operaciones instrumentadas.
+	 */
+	enum Operation {
+		INSERT, CONTAINS, REMOVE, REMOVE_ALL, GET_PATH
+	}
+
+	/**
+	 * Una operación terminada (también si lanzó NoSuchElementException por
+	 * no encontrar el elemento).
+	 *
+	 * @param op operación.
+	 * @param comparisons llamadas a compareTo.
+	 * @param nodesVisited nodos recorridos: los del descenso, y en las que
+	 *        modifican el arbol también los de la búsqueda del sucesor y los
+	 *        que se recalculan de vuelta hacia la raiz.
+	 * @param depth profundidad (0 es la raiz) del nodo encontrado o del
+	 *        hueco donde acabó la búsqueda.
+	 */
+	void operation(Operation op, int comparisons, int nodesVisited, int depth);
+
+	/**
+	 * Una operación ha dejado un nodo vacio propio en lugar del arbol vacio
+	 * compartido de los huecos: la raiz de un arbol al eliminar su ultimo
+	 * elemento, la copia de un arbol vacio o el arbol que crea empty(). Los
+	 * arboles vacios que se crean con new no cuentan.
+	 */
+	void emptySubtreeAllocated();
+}
@@ -0,0 +1,66 @@
+package ule.edi.tree;
+
+import java.util.Map;
+
+/**
+ * Vista JMX de {@link TreeMetrics}, registrada como
+ * {@value TreeMetrics#OBJECT_NAME}.
+ *
+ * Los histogramas de profundidad tienen {@link TreeMetrics#BUCKETS} cubos
+ * en potencias de 2: el cubo 0 cuenta las operaciones a profundidad 0 (la
+ * raiz) y el cubo i > 0 las de profundidad entre 2^(i-1) y 2^i - 1. En un
+ * arbol equilibrado con n elementos casi todo cae en los cubos hasta
+ * log2(n) + 1; si aparecen operaciones en cubos mucho más altos, algún
+ * arbol está degenerando.
+ */
+public interface TreeMetricsMXBean {
+
+	/**
+	 * Operaciones medidas, de todos los tipos.
+	 */
+	long getOperations();
+
+	/**
+	 * Operaciones medidas de cada tipo ({@link TreeMetricsListener.Operation}).
+	 */
+	Map<String, Long> getOperationsByType();
+
+	long getComparisons();
+
+	long getNodesVisited();
+
+	/**
+	 * Nodos vacios propios que han dejado las operaciones; ver
+	 * {@link TreeMetricsListener#emptySubtreeAllocated()}. Los huecos
+	 * comparten un mismo arbol vacio, así que solo crece al vaciar o copiar
+	 * arboles vacios, no al insertar ni al eliminar en un arbol no vacio.
+	 */
+	long getEmptySubtreeAllocations();
+
+	/**
+	 * Mayor profundidad alcanzada por una operación.
+	 */
+	int getMaxDepth();
+
+	/**
+	 * Profundidad media de las operaciones.
+	 */
+	double getMeanDepth();
+
+	/**
+	 * Histograma de profundidades de todas las operaciones.
+	 */
+	long[] getDepthHistogram();
+
+	/**
+	 * Histograma de profundidades de un tipo de operación.
+	 *
+	 * @throws IllegalArgumentException si no es un tipo de operación
+	 */
+	long[] getDepthHistogramOf(String operation);
+
+	/**
+	 * Pone todos los contadores a cero.
+	 */
+	void reset();
+}
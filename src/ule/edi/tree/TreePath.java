@@ -0,0 +1,116 @@
+package ule.edi.tree;
+
+import java.util.Arrays;
+
+/**
+ * Camino desde la raiz de un arbol binario hasta uno de sus nodos,
+ * codificado en bits: la profundidad y un bit por paso (0 para "bajar por
+ * la izquierda", L, y 1 para "bajar por la derecha", R).
+ *
+ * Es la version compacta de los caminos de Ls y Rs que devuelve
+ * {@link BinarySearchTreeImpl#getPath(Comparable)}: es inmutable, tiene
+ * equals/hashCode (sirve como clave de caches) y se resuelve con
+ * {@link BinarySearchTreeImpl#getSubtreeWithPath(TreePath)} sin manejar
+ * cadenas. Un camino de hasta 64 pasos ocupa un unico long.
+ */
+public final class TreePath {
+
+	private static final long[] NO_BITS = new long[0];
+
+	/**
+	 * Camino vacio, desde un nodo hasta el mismo.
+	 */
+	public static final TreePath EMPTY = new TreePath(0, NO_BITS);
+
+	private final int depth;
+	//	El paso i esta en el bit (i % 64) de bits[i / 64]
+	private final long[] bits;
+
+	TreePath(int depth, long[] bits) {
+		this.depth = depth;
+		this.bits = bits;
+	}
+
+	/**
+	 * Codifica un camino de Ls y Rs.
+	 *
+	 * @param path camino formado por 'L' y 'R'
+	 * @return el camino codificado
+	 * @throws IllegalArgumentException si path es null o tiene otros caracteres
+	 */
+	public static TreePath parse(CharSequence path) {
+		if (path == null) {
+			throw new IllegalArgumentException();
+		}
+		int depth = path.length();
+		if (depth == 0) {
+			return EMPTY;
+		}
+		long[] bits = new long[words(depth)];
+		for (int i = 0; i < depth; i++) {
+			char c = path.charAt(i);
+			if (c == 'R') {
+				bits[i >>> 6] |= 1L << i;
+			} else if (c != 'L') {
+				throw new IllegalArgumentException("path step '" + c + "' is not L or R");
+			}
+		}
+		return new TreePath(depth, bits);
+	}
+
+	static int words(int depth) {
+		return (depth + 63) >>> 6;
+	}
+
+	/**
+	 * Devuelve el numero de pasos del camino.
+	 *
+	 * @return profundidad del nodo destino respecto al origen
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Indica si el paso i-esimo baja por la derecha.
+	 *
+	 * @param i indice del paso, empiezan en "0"
+	 * @return cierto para "R", falso para "L"
+	 * @throws IndexOutOfBoundsException si i no esta entre 0 y depth()-1
+	 */
+	public boolean isRight(int i) {
+		if (i < 0 || i >= depth) {
+			throw new IndexOutOfBoundsException("step " + i + ", depth " + depth);
+		}
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof TreePath)) {
+			return false;
+		}
+		TreePath p = (TreePath) o;
+		return depth == p.depth && Arrays.equals(bits, p.bits);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * depth + Arrays.hashCode(bits);
+	}
+
+	/**
+	 * Devuelve el camino como cadena de Ls y Rs, igual que getPath.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(depth);
+		for (int i = 0; i < depth; i++) {
+			sb.append(isRight(i) ? 'R' : 'L');
+		}
+		return sb.toString();
+	}
+}